@@ -0,0 +1,65 @@
+import java.sql.*;
+
+/**
+ * Writes rows with a batched {@code INSERT ... VALUES (?, ...)} prepared statement. Works against any JDBC target.
+ */
+public class BatchInsertWriter implements TableWriter {
+
+    private final int batchSize;
+    private PreparedStatement pstmt;
+    private int columnCount;
+    private int count;
+
+    public BatchInsertWriter(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException {
+        columnCount = columns.count();
+        pstmt = targetConn.prepareStatement(insertSQL(tableName, columns));
+    }
+
+    protected String insertSQL(String tableName, TableColumns columns) throws SQLException {
+        return "INSERT INTO " + tableName + " " + columnsAndValues(columns);
+    }
+
+    /**
+     * Returns {@code (c1,c2,...) VALUES (?,?,...)} for every column, in result-set order.
+     */
+    protected static String columnsAndValues(TableColumns columns) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 1; i <= columns.count(); i++) {
+            placeholders.append("?");
+            if (i < columns.count()) {
+                placeholders.append(",");
+            }
+        }
+
+        return String.format("(%s) VALUES (%s)", columns.columnList(), placeholders.toString());
+    }
+
+    @Override
+    public void write(RowBatch batch) throws SQLException {
+        for (int r = 0; r < batch.size(); r++) {
+            batch.bindRow(pstmt, r, 1);
+            pstmt.addBatch();
+
+            if (++count % batchSize == 0) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        pstmt.executeBatch();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (pstmt != null) {
+            pstmt.close();
+        }
+    }
+}
@@ -79,13 +79,12 @@ public class BatchMigratorC {
 
         // Process records in batches
         resultSet = sourceStmt.executeQuery();
+        ColumnBinder[] binders = ColumnBinder.forColumns(TypeMapping.normalize(sourceConn.getMetaData().getDatabaseProductName(), TableColumns.of(resultSet.getMetaData()))); // one typed binder per column, unsigned types widened
         int count = 0;
         while (resultSet.next()) {
-            // Set values for target insert statement using column names
+            // Set values for target insert statement with each column's typed binder
             for (int i = 1; i <= columnNames.size(); i++) {
-                String columnName = columnNames.get(i - 1);
-                Object value = resultSet.getObject(i);
-                targetStmt.setObject(i, value);
+                binders[i].copy(resultSet, targetStmt, i);
             }
 
             targetStmt.addBatch();
@@ -12,6 +12,7 @@ import org.yaml.snakeyaml.Yaml;
 public class BatchMigratorF {
 
     private static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int BATCHES_PER_COMMIT = 10; // Group batches so the target does not flush its log per batch
     private static final String CONFIG_FILE_ENV_VAR = "CONFIG_FILE_PATH"; // Environment variable name
 
     // Prepared statement cache
@@ -22,13 +23,13 @@ public class BatchMigratorF {
 
         // Process records in batches
         resultSet = sourceStmt.executeQuery();
+        ColumnBinder[] binders = ColumnBinder.forColumns(TypeMapping.normalize(sourceConn.getMetaData().getDatabaseProductName(), TableColumns.of(resultSet.getMetaData()))); // one typed binder per column, unsigned types widened
         int count = 0;
+        int uncommittedBatches = 0;
         while (resultSet.next()) {
-            // Set values for target insert statement using column names
+            // Set values for target insert statement with each column's typed binder
             for (int i = 1; i <= columnNames.size(); i++) {
-                String columnName = columnNames.get(i - 1);
-                Object value = resultSet.getObject(i);
-                targetStmt.setObject(i, value);
+                binders[i].copy(resultSet, targetStmt, i);
             }
 
             targetStmt.addBatch();
@@ -36,7 +37,10 @@ public class BatchMigratorF {
 
             if (count % batchSize == 0) {
                 targetStmt.executeBatch();
-                targetConn.commit(); // Commit after each batch
+                if (++uncommittedBatches == BATCHES_PER_COMMIT) {
+                    targetConn.commit(); // Commit every BATCHES_PER_COMMIT batches
+                    uncommittedBatches = 0;
+                }
                 count = 0; // Reset counter for next batch
             }
         }
@@ -44,8 +48,8 @@ public class BatchMigratorF {
         // Handle remaining records in the batch (if any)
         if (count > 0) {
             targetStmt.executeBatch();
-            targetConn.commit(); // Final commit for remaining records
         }
+        targetConn.commit(); // Final commit for remaining records
 
         // Close resources
         resultSet.close();
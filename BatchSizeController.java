@@ -0,0 +1,74 @@
+/**
+ * Chooses the number of rows per batch for one table from the commit latency and throughput of
+ * the batches written so far. It hill-climbs: it keeps growing (or shrinking) the batch while
+ * rows/sec improves and turns around when it drops, and it always stays within the configured
+ * row bounds, the byte budget per batch and the latency ceiling per commit.
+ */
+public class BatchSizeController {
+
+    private static final double STEP = 1.5;
+    private static final double TOLERANCE = 0.95;
+
+    private final int min;
+    private final int max;
+    private final long byteBudget;
+    private final long maxLatencyNanos;
+    private int size;
+    private int direction = 1;
+    private double lastThroughput;
+    private double rowBytes;
+
+    public BatchSizeController(int initial, int min, int max, long byteBudget, long maxLatencyMillis) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.byteBudget = byteBudget;
+        this.maxLatencyNanos = maxLatencyMillis * 1_000_000L;
+        this.size = Math.min(this.max, Math.max(this.min, initial));
+    }
+
+    /**
+     * A controller that never changes the batch size.
+     */
+    public static BatchSizeController fixed(int size) {
+        return new BatchSizeController(size, size, size, Long.MAX_VALUE, Long.MAX_VALUE / 1_000_000L);
+    }
+
+    public synchronized int batchSize() {
+        return size;
+    }
+
+    public int maxBatchSize() {
+        return max;
+    }
+
+    /**
+     * Feeds back one written batch: its row count, estimated size in bytes and the time from the
+     * first write to the end of its commit.
+     */
+    public synchronized void record(int rows, long bytes, long nanos) {
+        if (min == max || rows == 0 || nanos <= 0) {
+            return;
+        }
+        double observedRowBytes = (double) bytes / rows;
+        rowBytes = rowBytes == 0 ? observedRowBytes : rowBytes * 0.8 + observedRowBytes * 0.2;
+
+        // the tail of a table is not a representative sample
+        if (rows < size / 2) {
+            return;
+        }
+
+        double throughput = rows * 1e9 / nanos;
+        if (nanos > maxLatencyNanos) {
+            direction = -1;
+        } else if (lastThroughput > 0 && throughput < lastThroughput * TOLERANCE) {
+            direction = -direction;
+        }
+        lastThroughput = throughput;
+
+        long next = direction > 0 ? (long) Math.ceil(size * STEP) : (long) (size / STEP);
+        if (rowBytes > 0) {
+            next = Math.min(next, (long) (byteBudget / rowBytes));
+        }
+        size = (int) Math.min(max, Math.max(min, next));
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records transfer progress in an append-only journal file, so that an interrupted run can be
+ * resumed. Each line is either {@code K <split-id> <key>} (every row up to and including that key
+ * is committed on the target) or {@code D <split-id>} (the split is complete). When the journal is
+ * read back the last line for a split wins; a torn last line from a crash is ignored. The journal is
+ * written under a lock rather than a monitor, so a virtual thread does not pin its carrier while it
+ * waits for the file.
+ */
+public class CheckpointStore implements AutoCloseable {
+
+    public static class Checkpoint {
+        public Object lastKey;
+        public boolean done;
+    }
+
+    private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+    private final Writer journal;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private CheckpointStore(String path, boolean resume) throws IOException {
+        File file = new File(path);
+        if (resume && file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    apply(line);
+                }
+            }
+        }
+        journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, resume), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Opens the journal at {@code path}. Without {@code resume} any previous progress is discarded.
+     */
+    public static CheckpointStore open(String path, boolean resume) throws IOException {
+        return new CheckpointStore(path, resume);
+    }
+
+    private void apply(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length == 3 && "K".equals(fields[0])) {
+            Object key = decode(fields[2]);
+            if (key != null) {
+                checkpoints.computeIfAbsent(fields[1], id -> new Checkpoint()).lastKey = key;
+            }
+        } else if (fields.length == 2 && "D".equals(fields[0])) {
+            checkpoints.computeIfAbsent(fields[1], id -> new Checkpoint()).done = true;
+        }
+    }
+
+    /**
+     * Returns the recorded progress of a split, or null if it has none.
+     */
+    public Checkpoint get(String splitId) {
+        lock.lock();
+        try {
+            return checkpoints.get(splitId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void record(String splitId, Object lastKey) throws IOException {
+        String key = encode(lastKey);
+        if (key == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            checkpoints.computeIfAbsent(splitId, id -> new Checkpoint()).lastKey = lastKey;
+            journal.write("K\t" + splitId + "\t" + key + "\n");
+            journal.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void complete(String splitId) throws IOException {
+        lock.lock();
+        try {
+            checkpoints.computeIfAbsent(splitId, id -> new Checkpoint()).done = true;
+            journal.write("D\t" + splitId + "\n");
+            journal.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            journal.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static String encode(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return "L:" + key;
+        }
+        if (key instanceof BigDecimal) {
+            return "N:" + ((BigDecimal) key).toPlainString();
+        }
+        if (key instanceof Timestamp) {
+            return "T:" + key;
+        }
+        if (key instanceof Date) {
+            return "D:" + key;
+        }
+        return null;
+    }
+
+    static Object decode(String value) {
+        try {
+            String body = value.substring(2);
+            switch (value.substring(0, 2)) {
+                case "L:":
+                    return Long.parseLong(body);
+                case "N:":
+                    return new BigDecimal(body);
+                case "T:":
+                    return Timestamp.valueOf(body);
+                case "D:":
+                    return Date.valueOf(body);
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Turns batch commits that may complete out of order (several writers per split) into a
+     * checkpoint that only ever covers a gap-free prefix of the split.
+     */
+    public class Progress {
+        private final String splitId;
+        private final TreeMap<Long, Object> committed = new TreeMap<>();
+        private final ReentrantLock progressLock = new ReentrantLock();
+        private long nextSequence;
+
+        Progress(String splitId) {
+            this.splitId = splitId;
+        }
+
+        /**
+         * Called after the batch with reader sequence {@code sequence}, whose highest key is
+         * {@code lastKey}, has been committed on the target.
+         */
+        public void committed(long sequence, Object lastKey) throws IOException {
+            progressLock.lock();
+            try {
+                committed.put(sequence, lastKey);
+                Object checkpointKey = null;
+                while (!committed.isEmpty() && committed.firstKey() == nextSequence) {
+                    checkpointKey = committed.pollFirstEntry().getValue();
+                    nextSequence++;
+                }
+                if (checkpointKey != null) {
+                    record(splitId, checkpointKey);
+                }
+            } finally {
+                progressLock.unlock();
+            }
+        }
+
+        public void complete() throws IOException {
+            CheckpointStore.this.complete(splitId);
+        }
+    }
+
+    public Progress progress(String splitId) {
+        return new Progress(splitId);
+    }
+}
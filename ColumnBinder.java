@@ -0,0 +1,581 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Arrays;
+
+/**
+ * Moves the values of one column between a source result set, a {@link RowBatch} and a target
+ * statement with the typed JDBC accessors for that column's type. Binders are picked once per table
+ * from the result-set metadata, so the row loop never goes through getObject/setObject and integer,
+ * floating-point and boolean values are never boxed.
+ */
+public abstract class ColumnBinder {
+
+    /**
+     * Which array of a {@link RowBatch.ColumnVector} holds this column's values.
+     */
+    public enum Storage { LONG, DOUBLE, BOOLEAN, OBJECT }
+
+    protected final int sqlType;
+
+    protected ColumnBinder(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    public int sqlType() {
+        return sqlType;
+    }
+
+    public abstract Storage storage();
+
+    /**
+     * Reads column {@code column} of the current source row into slot {@code row} of the vector.
+     */
+    public abstract void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException;
+
+    /**
+     * Binds slot {@code row} of the vector to parameter {@code param} of the target statement.
+     */
+    public abstract void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException;
+
+    /**
+     * Copies column {@code column} of the current source row straight to parameter {@code column}, for callers that do not buffer rows.
+     */
+    public abstract void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException;
+
+    /**
+     * Converts a stored object value into what the target receives. The identity, except for the
+     * binders {@link TypeMapping} uses to translate between dialects; text writers call it too.
+     */
+    public Object targetValue(Object value) {
+        return value;
+    }
+
+    /**
+     * Returns one binder per column, indexed from 1 like JDBC columns.
+     */
+    public static ColumnBinder[] forColumns(TableColumns columns) {
+        ColumnBinder[] binders = new ColumnBinder[columns.count() + 1];
+        for (int i = 1; i <= columns.count(); i++) {
+            binders[i] = isLob(columns.types[i], columns.typeNames[i]) ? lobBinder(columns.types[i]) : forType(columns.types[i]);
+        }
+        return binders;
+    }
+
+    /**
+     * Whether a column holds large objects that should be streamed: BLOB and CLOB, the LONGVAR*
+     * types MySQL reports for its BLOB and TEXT types, and PostgreSQL bytea and text.
+     */
+    public static boolean isLob(int sqlType, String typeName) {
+        switch (sqlType) {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.NCLOB:
+            case Types.LONGVARBINARY:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+                return true;
+            case Types.BINARY:
+            case Types.VARBINARY:
+                return "bytea".equalsIgnoreCase(typeName);
+            case Types.VARCHAR:
+                return "text".equalsIgnoreCase(typeName);
+            default:
+                return false;
+        }
+    }
+
+    private static ColumnBinder lobBinder(int sqlType) {
+        return TextRowEncoder.isBinary(sqlType) ? new BlobBinder(sqlType) : new ClobBinder(sqlType);
+    }
+
+    public static ColumnBinder forType(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return new IntBinder(sqlType);
+            case Types.BIGINT:
+                return new LongBinder(sqlType);
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleBinder(sqlType);
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return new BooleanBinder(sqlType);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return new DecimalBinder(sqlType);
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return new StringBinder(sqlType);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return new BytesBinder(sqlType);
+            case Types.DATE:
+                return new DateBinder(sqlType);
+            case Types.TIME:
+                return new TimeBinder(sqlType);
+            case Types.TIMESTAMP:
+                return new TimestampBinder(sqlType);
+            default:
+                return new ObjectBinder(sqlType);
+        }
+    }
+
+    static class IntBinder extends ColumnBinder {
+        IntBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.LONG;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.longs[row] = rs.getInt(column);
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setInt(param, (int) vector.longs[row]);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            int value = rs.getInt(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setInt(column, value);
+            }
+        }
+    }
+
+    static class LongBinder extends ColumnBinder {
+        LongBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.LONG;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.longs[row] = rs.getLong(column);
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setLong(param, vector.longs[row]);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            long value = rs.getLong(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setLong(column, value);
+            }
+        }
+    }
+
+    static class DoubleBinder extends ColumnBinder {
+        DoubleBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.DOUBLE;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.doubles[row] = rs.getDouble(column);
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setDouble(param, vector.doubles[row]);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            double value = rs.getDouble(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setDouble(column, value);
+            }
+        }
+    }
+
+    static class BooleanBinder extends ColumnBinder {
+        BooleanBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.BOOLEAN;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.longs[row] = rs.getBoolean(column) ? 1 : 0;
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setBoolean(param, vector.longs[row] != 0);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            boolean value = rs.getBoolean(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setBoolean(column, value);
+            }
+        }
+    }
+
+    /**
+     * Base for binders whose values are objects anyway (strings, byte arrays, temporal values);
+     * the typed accessor still spares the driver from inferring the type.
+     */
+    abstract static class ReferenceBinder extends ColumnBinder {
+        ReferenceBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.OBJECT;
+        }
+
+        abstract Object get(ResultSet rs, int column) throws SQLException;
+
+        abstract void set(PreparedStatement pstmt, int param, Object value) throws SQLException;
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            Object value = get(rs, column);
+            vector.objects[row] = value;
+            vector.nulls[row] = value == null;
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                set(pstmt, param, targetValue(vector.objects[row]));
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            Object value = get(rs, column);
+            if (value == null) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                set(pstmt, column, targetValue(value));
+            }
+        }
+    }
+
+    static class DecimalBinder extends ReferenceBinder {
+        DecimalBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getBigDecimal(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setBigDecimal(param, (BigDecimal) value);
+        }
+    }
+
+    static class StringBinder extends ReferenceBinder {
+        StringBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setString(param, (String) value);
+        }
+    }
+
+    static class BytesBinder extends ReferenceBinder {
+        BytesBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getBytes(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setBytes(param, (byte[]) value);
+        }
+    }
+
+    /**
+     * Base for large-object columns. Values are read through the driver's streams: those of up to
+     * {@link LobSpill#INLINE_BYTES} end up on the heap as usual, larger ones go to the vector's
+     * {@link LobSpill} and are bound to the target as streams, so a multi-megabyte document is never
+     * held in memory as a whole. {@link #copy} still binds whole values, because a statement batch
+     * only reads its parameters when it is executed, after the source row and its streams are gone.
+     */
+    abstract static class LobBinder extends ReferenceBinder {
+        LobBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        abstract Object readValue(ResultSet rs, int column, LobSpill spill) throws SQLException, IOException;
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.spill == null) {
+                vector.spill = new LobSpill();
+            }
+            Object value;
+            try {
+                value = readValue(rs, column, vector.spill);
+            } catch (IOException e) {
+                throw new SQLException("Could not read LOB column " + column + ": " + e.getMessage(), e);
+            }
+            vector.objects[row] = value;
+            vector.nulls[row] = value == null;
+        }
+
+        /**
+         * Size of a value in bytes (chars for text held on the heap), for capping batches by size.
+         */
+        static long size(Object value) {
+            if (value instanceof byte[]) {
+                return ((byte[]) value).length;
+            } else if (value instanceof String) {
+                return ((String) value).length();
+            } else if (value instanceof LobSpill.Value) {
+                return ((LobSpill.Value) value).length();
+            }
+            return 0;
+        }
+    }
+
+    static class BlobBinder extends LobBinder {
+        private byte[] head;
+
+        BlobBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object readValue(ResultSet rs, int column, LobSpill spill) throws SQLException, IOException {
+            InputStream in = rs.getBinaryStream(column);
+            if (in == null) {
+                return null;
+            }
+            if (head == null) {
+                head = new byte[LobSpill.INLINE_BYTES];
+            }
+            try (InputStream stream = in) {
+                int length = 0;
+                int n;
+                while (length < head.length && (n = stream.read(head, length, head.length - length)) > 0) {
+                    length += n;
+                }
+                return length < head.length ? Arrays.copyOf(head, length) : spill.write(head, length, stream);
+            }
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getBytes(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            if (value instanceof LobSpill.Value) {
+                LobSpill.Value lob = (LobSpill.Value) value;
+                pstmt.setBinaryStream(param, lob.openStream(), lob.length());
+            } else {
+                pstmt.setBytes(param, (byte[]) value);
+            }
+        }
+    }
+
+    static class ClobBinder extends LobBinder {
+        private char[] head;
+
+        ClobBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object readValue(ResultSet rs, int column, LobSpill spill) throws SQLException, IOException {
+            Reader in = rs.getCharacterStream(column);
+            if (in == null) {
+                return null;
+            }
+            if (head == null) {
+                head = new char[LobSpill.INLINE_BYTES];
+            }
+            try (Reader reader = in) {
+                int length = 0;
+                int n;
+                while (length < head.length && (n = reader.read(head, length, head.length - length)) > 0) {
+                    length += n;
+                }
+                return length < head.length ? new String(head, 0, length) : spill.write(head, length, reader);
+            }
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            if (value instanceof LobSpill.Value) {
+                LobSpill.Value lob = (LobSpill.Value) value;
+                pstmt.setCharacterStream(param, lob.openReader(), lob.chars());
+            } else {
+                pstmt.setString(param, (String) value);
+            }
+        }
+    }
+
+    static class DateBinder extends ReferenceBinder {
+        DateBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getDate(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setDate(param, (Date) value);
+        }
+    }
+
+    static class TimeBinder extends ReferenceBinder {
+        TimeBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getTime(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setTime(param, (Time) value);
+        }
+    }
+
+    static class TimestampBinder extends ReferenceBinder {
+        TimestampBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getTimestamp(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setTimestamp(param, (Timestamp) value);
+        }
+    }
+
+    /**
+     * Fallback for types without a dedicated accessor (json, arrays, uuid, vendor types).
+     */
+    static class ObjectBinder extends ReferenceBinder {
+        ObjectBinder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getObject(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setObject(param, value);
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            // setNull with a vendor type code is rejected by some drivers; a typeless null is not
+            if (vector.nulls[row]) {
+                pstmt.setObject(param, null);
+            } else {
+                set(pstmt, param, targetValue(vector.objects[row]));
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            Object value = get(rs, column);
+            set(pstmt, column, value == null ? null : targetValue(value));
+        }
+    }
+}
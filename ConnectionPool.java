@@ -0,0 +1,138 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A bounded pool of JDBC connections to one database. Each worker leases its own connection,
+ * so no two threads ever share a Connection, and at most {@code size} connections are open at once.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    /**
+     * A leased connection; closing the lease hands the connection back to the pool.
+     */
+    public class Lease implements AutoCloseable {
+        private Connection connection;
+
+        private Lease(Connection connection) {
+            this.connection = connection;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (connection != null) {
+                release(connection);
+                connection = null;
+            }
+        }
+    }
+
+    private final String name;
+    private final int size;
+    private final ConnectionFactory factory;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final List<Connection> opened = new ArrayList<>();
+    private volatile boolean closed;
+
+    public ConnectionPool(String name, int size, ConnectionFactory factory) {
+        this.name = name;
+        this.size = size > 0 ? size : DEFAULT_POOL_SIZE;
+        this.factory = factory;
+        this.permits = new Semaphore(this.size, true);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Blocks until a connection is free, opening a new one while the pool is below its size.
+     */
+    public Lease lease() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool " + name + " is closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + name, e);
+        }
+
+        try {
+            Connection conn = idle.poll();
+            if (conn == null) {
+                conn = factory.create();
+                synchronized (opened) {
+                    opened.add(conn);
+                }
+            }
+            return new Lease(conn);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Connection conn) {
+        try {
+            if (closed || conn.isClosed()) {
+                discard(conn);
+            } else {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                idle.offer(conn);
+            }
+        } catch (SQLException e) {
+            discard(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Connection conn) {
+        synchronized (opened) {
+            opened.remove(conn);
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.out.println("Failed to close connection to " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        List<Connection> toClose;
+        synchronized (opened) {
+            toClose = new ArrayList<>(opened);
+            opened.clear();
+        }
+        idle.clear();
+        for (Connection conn : toClose) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                System.out.println("Failed to close connection to " + name + ": " + e.getMessage());
+            }
+        }
+    }
+}
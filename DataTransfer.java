@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class DataTransfer {
 
@@ -19,13 +20,14 @@ public class DataTransfer {
         public String url;
         public String userName;
         public String password;
+        public int poolSize;
     }
 
     public static class Config {
         public List<DBConfig> connections;
     }
 
-    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
         if (args.length < 3) {
             System.out.println("Usage: java DataTransfer <config-file> <batch-size> <table1> <table2> ...");
             return;
@@ -46,22 +48,29 @@ public class DataTransfer {
             return;
         }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(tables.length);
+        ExecutorService executorService = null;
 
-        try (Connection mysqlConn = DriverManager.getConnection(mysqlConfig.url, mysqlConfig.userName, mysqlConfig.password);
-             Connection pgConn = DriverManager.getConnection(pgConfig.url, pgConfig.userName, pgConfig.password)) {
+        try (ConnectionPool mysqlPool = new ConnectionPool(mysqlConfig.name, mysqlConfig.poolSize, () -> DriverManager.getConnection(mysqlConfig.url, mysqlConfig.userName, mysqlConfig.password));
+             ConnectionPool pgPool = new ConnectionPool(pgConfig.name, pgConfig.poolSize, () -> DriverManager.getConnection(pgConfig.url, pgConfig.userName, pgConfig.password))) {
 
+            executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(tables.length, Math.min(mysqlPool.size(), pgPool.size()))));
             for (String table : tables) {
                 executorService.execute(() -> {
-                    try {
-                        transferTableData(mysqlConn, pgConn, table, batchSize);
+                    try (ConnectionPool.Lease mysql = mysqlPool.lease();
+                         ConnectionPool.Lease pg = pgPool.lease()) {
+                        transferTableData(mysql.connection(), pg.connection(), table, batchSize);
                     } catch (SQLException e) {
                         e.printStackTrace();
                     }
                 });
             }
-        } finally {
+
             executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
         }
     }
 
@@ -94,13 +103,16 @@ public class DataTransfer {
             }
 
             insertSQL = String.format(insertSQL, columns.toString(), placeholders.toString());
+            // Unsigned integers are widened, and tinyint(1) and text reach PostgreSQL booleans, json and uuid columns
+            TableColumns sourceColumns = TypeMapping.normalize("mysql", TableColumns.of(rsMetaData));
+            ColumnBinder[] binders = TypeMapping.plan(targetConn, "postgresql", tableName, sourceColumns).binders();
 
             try (PreparedStatement pstmt = targetConn.prepareStatement(insertSQL)) {
                 int count = 0;
 
                 while (rs.next()) {
                     for (int i = 1; i <= columnCount; i++) {
-                        pstmt.setObject(i, rs.getObject(i));
+                        binders[i].copy(rs, pstmt, i);
                     }
                     pstmt.addBatch();
 
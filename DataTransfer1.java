@@ -10,6 +10,7 @@ import java.sql.*;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,13 +24,14 @@ public class DataTransfer1 {
         public String url;
         public String userName;
         public String password;
+        public int poolSize;
     }
 
     public static class Config {
         public List<DBConfig> connections;
     }
 
-    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
         if (args.length < 4) {
             System.out.println("Usage: java DatabaseTransfer <config-file> <batch-size> <source-name> <target-name> <table1> <table2> ...");
             return;
@@ -55,22 +57,29 @@ public class DataTransfer1 {
             return;
         }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(tables.length);
+        ExecutorService executorService = null;
 
-        try (Connection sourceConn = createConnection(sourceConfig);
-             Connection targetConn = createConnection(targetConfig)) {
+        try (ConnectionPool sourcePool = new ConnectionPool(sourceConfig.name, sourceConfig.poolSize, () -> createConnection(sourceConfig));
+             ConnectionPool targetPool = new ConnectionPool(targetConfig.name, targetConfig.poolSize, () -> createConnection(targetConfig))) {
 
+            executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(tables.length, Math.min(sourcePool.size(), targetPool.size()))));
             for (String table : tables) {
                 executorService.execute(() -> {
-                    try {
-                        transferTableData(sourceConn, targetConn, table, batchSize);
+                    try (ConnectionPool.Lease source = sourcePool.lease();
+                         ConnectionPool.Lease target = targetPool.lease()) {
+                        transferTableData(source.connection(), target.connection(), table, batchSize);
                     } catch (SQLException e) {
                         e.printStackTrace();
                     }
                 });
             }
-        } finally {
+
             executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
         }
     }
 
@@ -116,13 +125,15 @@ public class DataTransfer1 {
             }
 
             insertSQL = String.format(insertSQL, columns.toString(), placeholders.toString());
+            // normalized so unsigned MySQL types get a binder wide enough for their range
+            ColumnBinder[] binders = ColumnBinder.forColumns(TypeMapping.normalize(sourceConn.getMetaData().getDatabaseProductName(), TableColumns.of(rsMetaData)));
 
             try (PreparedStatement pstmt = targetConn.prepareStatement(insertSQL)) {
                 int count = 0;
 
                 while (rs.next()) {
                     for (int i = 1; i <= columnCount; i++) {
-                        pstmt.setObject(i, rs.getObject(i));
+                        binders[i].copy(rs, pstmt, i);
                     }
                     pstmt.addBatch();
 
@@ -1,12 +1,26 @@
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class DatabaseTransfer {
 
@@ -18,52 +32,627 @@ public class DatabaseTransfer {
         public String url;
         public String userName;
         public String password;
+        public int poolSize;
+        public int fetchSize;
+    }
+
+    public static class TableConfig {
+        public String name;
+        public String watermarkColumn;
     }
 
     public static class Config {
         public List<DBConfig> connections;
+        public List<TableConfig> tables;
+    }
+
+    public static class Options {
+        public int splits = 1;
+        public String writer = "auto";
+        public int writers = 1;
+        public int ringSize = 4;
+        public int batchSize;
+        public String checkpointFile;
+        public boolean resume;
+        public String writeMode = "append";
+        public boolean incremental;
+        public String watermarkFile = "transfer.watermarks";
+        public boolean adaptiveBatch;
+        public int batchMin;
+        public int batchMax;
+        public long batchBytes = 64L * 1024 * 1024;
+        public long memoryBudget = MemoryGovernor.parseBudget("40%");
+        public long batchLatencyMillis = 5000;
+        public int commitEvery = 1;
+        public long commitIntervalMillis;
+        public boolean relaxTarget;
+        public boolean deferIndexes;
+        public String deferredIndexFile = "transfer.deferred.sql";
+        public int workers;
+        public boolean virtualThreads;
+        public long metricsIntervalSeconds = 10;
+        public int metricsPort;
+        public boolean verify;
+        public int verifyChunks = 16;
+        public boolean repair;
+        public String extractTo;
+        public String loadFrom;
+        public boolean createTables;
+    }
+
+    /**
+     * A database the rows are written to, with its own connection pool.
+     */
+    static class Target {
+        final DBConfig config;
+        final ConnectionPool pool;
+
+        Target(DBConfig config) {
+            this.config = config;
+            this.pool = new ConnectionPool(config.name, config.poolSize,
+                    () -> DriverManager.getConnection(config.url, config.userName, config.password));
+        }
+    }
+
+    /**
+     * State shared by every table task of one run.
+     */
+    static class TransferContext {
+        DBConfig sourceConfig;
+        List<Target> targets = new ArrayList<>();
+        Options options;
+        ExecutorService writerExecutor;
+        CheckpointStore checkpoints;
+        TransferMetrics metrics;
+        MemoryGovernor memory;
+        Map<String, BatchSizeController> batchSizes = new ConcurrentHashMap<>();
+        Map<String, TypeMapping.Plan> plans = new ConcurrentHashMap<>();
+
+        /**
+         * One controller per table, shared by all of its splits so they converge together.
+         */
+        BatchSizeController batchSizeFor(String tableName) {
+            return batchSizes.computeIfAbsent(tableName, table -> {
+                if (!options.adaptiveBatch) {
+                    return BatchSizeController.fixed(options.batchSize);
+                }
+                int min = options.batchMin > 0 ? options.batchMin : Math.max(1, options.batchSize / 10);
+                int max = options.batchMax > 0 ? options.batchMax : options.batchSize * 4;
+                return new BatchSizeController(options.batchSize, min, max, options.batchBytes, options.batchLatencyMillis);
+            });
+        }
+
+        /**
+         * The type mapping plan of a table on a target, compiled by the first writer that needs it.
+         */
+        TypeMapping.Plan planFor(Target target, String tableName, TableColumns columns, Connection targetConn) throws SQLException {
+            String key = target.config.name + "/" + tableName;
+            TypeMapping.Plan plan = plans.get(key);
+            if (plan == null) {
+                plan = TypeMapping.plan(targetConn, target.config.dbType, tableName, columns);
+                if (plans.putIfAbsent(key, plan) == null && !plan.conversions().isEmpty()) {
+                    System.out.println("Converting on " + target.config.name + "." + tableName + ": " + String.join(", ", plan.conversions()));
+                }
+            }
+            return plan;
+        }
     }
 
-    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        List<String> positional = new ArrayList<>();
+        Options options = parseOptions(args, positional);
+        args = positional.toArray(new String[0]);
+
         if (args.length < 4) {
-            System.out.println("Usage: java DatabaseTransfer <config-file> <batch-size> <source-name> <target-name> <table1> <table2> ...");
+            System.out.println("Usage: java DatabaseTransfer [--workers=<n>] [--virtual-threads] [--metrics-interval=<seconds>] [--metrics-port=<port>] [--verify [--verify-chunks=<n>] [--repair]] [--extract-to=<dir> | --load-from=<dir>] [--create-tables] [--splits=<n>] [--writer=auto|insert] [--writers=<n>] [--ring-size=<n>] [--checkpoint=<file>] [--resume] [--write-mode=append|upsert] [--incremental] [--watermarks=<file>] [--adaptive-batch] [--batch-min=<rows>] [--batch-max=<rows>] [--batch-bytes=<bytes>] [--memory-budget=<bytes>|<percent>%] [--batch-latency-ms=<ms>] [--commit-every=<batches>] [--commit-interval=<seconds>] [--relax-target] [--defer-indexes] [--deferred-ddl=<file>] <config-file> <batch-size> <source-name> <target-name>[,<target-name>...] <table1> <table2> ...");
             return;
         }
 
         String configFilePath = args[0];
-        int batchSize = Integer.parseInt(args[1]);
+        options.batchSize = Integer.parseInt(args[1]);
         String sourceName = args[2];
-        String targetName = args[3];
+        // Several comma-separated targets are all fed from one read of the source
+        String[] targetNames = args[3].split(",");
         String[] tables = new String[args.length - 4];
         System.arraycopy(args, 4, tables, 0, args.length - 4);
 
         Config config = loadConfig(configFilePath);
 
         DBConfig sourceConfig = config.connections.stream().filter(conn -> sourceName.equals(conn.name)).findFirst().orElse(null);
-        DBConfig targetConfig = config.connections.stream().filter(conn -> targetName.equals(conn.name)).findFirst().orElse(null);
+        List<DBConfig> targetConfigs = new ArrayList<>();
+        for (String targetName : targetNames) {
+            targetConfigs.add(config.connections.stream().filter(conn -> targetName.equals(conn.name)).findFirst().orElse(null));
+        }
 
-        if (sourceConfig == null || targetConfig == null) {
-            System.out.println("Both source and target database configurations must be provided in the config file.");
+        // An extract only reads the source and a load only writes the target
+        boolean extract = options.extractTo != null;
+        boolean load = options.loadFrom != null;
+        if ((extract || load) && (extract && load || options.verify || options.checkpointFile != null || options.resume)) {
+            System.out.println("--extract-to and --load-from cannot be combined with each other, with --verify or with checkpoints.");
+            return;
+        }
+        if (load && options.createTables) {
+            System.out.println("--create-tables reads the table definitions from the source, so it cannot be combined with --load-from.");
+            return;
+        }
+        if (targetConfigs.size() > 1 && (options.verify || options.checkpointFile != null || options.resume)) {
+            System.out.println("--verify and checkpoints work with a single target only.");
+            return;
+        }
+        if (sourceConfig == null && !load || targetConfigs.contains(null) && !extract) {
+            System.out.println(extract ? "The source database configuration must be provided in the config file."
+                    : load ? "The target database configuration must be provided in the config file."
+                    : "Both source and target database configurations must be provided in the config file.");
             return;
         }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(tables.length);
+        if (options.resume && options.checkpointFile == null) {
+            options.checkpointFile = "transfer.checkpoint";
+        }
+        // Rows that changed since the last sync already exist on the target
+        if (options.incremental) {
+            options.writeMode = "upsert";
+        }
+        WatermarkStore watermarks = options.incremental ? new WatermarkStore(options.watermarkFile) : null;
+        Map<String, Object> newWatermarks = new HashMap<>();
+        Set<String> failedTables = ConcurrentHashMap.newKeySet();
+        boolean differences = false;
 
-        try (Connection sourceConn = DriverManager.getConnection(sourceConfig.url, sourceConfig.userName, sourceConfig.password);
-             Connection targetConn = DriverManager.getConnection(targetConfig.url, targetConfig.userName, targetConfig.password)) {
+        ThreadFactory threadFactory = WorkerThreads.factory(options.virtualThreads);
+        ExecutorService writerExecutor = Executors.newCachedThreadPool(threadFactory);
 
-            for (String table : tables) {
-                executorService.execute(() -> {
-                    try {
-                        transferTableData(sourceConn, targetConn, table, batchSize);
-                    } catch (SQLException e) {
-                        e.printStackTrace();
+        TransferContext context = new TransferContext();
+        try (ConnectionPool sourcePool = load ? null : new ConnectionPool(sourceConfig.name, sourceConfig.poolSize,
+                () -> DriverManager.getConnection(sourceConfig.url, sourceConfig.userName, sourceConfig.password));
+             CheckpointStore checkpoints = options.checkpointFile == null ? null : CheckpointStore.open(options.checkpointFile, options.resume);
+             TransferMetrics metrics = new TransferMetrics()) {
+
+            context.sourceConfig = sourceConfig;
+            if (!extract) {
+                for (DBConfig targetConfig : targetConfigs) {
+                    context.targets.add(new Target(targetConfig));
+                }
+            }
+            context.options = options;
+            context.writerExecutor = writerExecutor;
+            context.checkpoints = checkpoints;
+            context.metrics = metrics;
+            context.memory = new MemoryGovernor(options.memoryBudget);
+            if (options.metricsIntervalSeconds > 0) {
+                metrics.startReporting(options.metricsIntervalSeconds);
+            }
+            if (options.metricsPort > 0) {
+                metrics.startHttp(options.metricsPort);
+            }
+
+            if (options.verify) {
+                differences = !verifyTables(tables, sourcePool, context, threadFactory);
+                return;
+            }
+
+            if (load) {
+                failedTables.addAll(loadStagedTables(tables, new File(options.loadFrom), context, threadFactory));
+                return;
+            }
+
+            // Checkpoints need every split read in key order, so plan on the key even when not splitting
+            List<SplitPlanner.Split> splits = new ArrayList<>();
+            Map<String, Long> estimatedRows = new HashMap<>();
+            try (ConnectionPool.Lease source = sourcePool.lease()) {
+                for (String table : tables) {
+                    estimatedRows.put(table, estimateRows(source.connection(), sourceConfig.dbType, table));
+                    List<SplitPlanner.Split> tableSplits = SplitPlanner.plan(source.connection(), table, options.splits, checkpoints != null, checkpoints != null);
+                    if (watermarks != null) {
+                        tableSplits = applyWatermark(source.connection(), config, table, tableSplits, watermarks, newWatermarks);
+                    }
+                    splits.addAll(tableSplits);
+                }
+            }
+
+            if (extract) {
+                failedTables.addAll(extractTables(tables, splits, estimatedRows, new File(options.extractTo), sourcePool, context, threadFactory));
+                saveWatermarks(newWatermarks, failedTables, watermarks);
+                return;
+            }
+
+            if (options.createTables) {
+                createMissingTables(tables, sourcePool, context);
+            }
+            List<DeferredIndexes> deferredIndexes = dropIndexes(tables, context);
+
+            // Parents are read after --defer-indexes has dropped foreign keys, which then need no ordering
+            Map<String, Set<String>> parents = readParents(tables, context);
+
+            // Writer threads lease their own target connections and are bounded by the target pool.
+            int workers = readerThreads(options, sourcePool);
+            int threads = Math.max(1, Math.min(splits.size(), workers));
+            System.out.println("Copying " + splits.size() + " ranges of " + tables.length + " tables to " + String.join(", ", targetNames)
+                    + ", largest first, on " + threads + " workers with " + String.format("%.1f", options.memoryBudget / 1048576.0) + " MB for buffered rows"
+                    + (parents.isEmpty() ? "." : "; tables wait for the tables they reference: " + parents));
+            TableScheduler scheduler = new TableScheduler(threads, threadFactory, splits, estimatedRows, parents, split -> {
+                try (ConnectionPool.Lease source = sourcePool.lease()) {
+                    transferSplit(source.connection(), split, context);
+                }
+            });
+            failedTables.addAll(scheduler.run());
+            metrics.report();
+
+            rebuildIndexes(deferredIndexes, tables, failedTables, context);
+            saveWatermarks(newWatermarks, failedTables, watermarks);
+        } finally {
+            for (Target target : context.targets) {
+                target.pool.close();
+            }
+            writerExecutor.shutdownNow();
+            if (differences) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Creates the tables a target does not have yet, with column types mapped by {@link TypeMapping}.
+     */
+    private static void createMissingTables(String[] tables, ConnectionPool sourcePool, TransferContext context) throws SQLException {
+        try (ConnectionPool.Lease source = sourcePool.lease()) {
+            for (Target target : context.targets) {
+                try (ConnectionPool.Lease lease = target.pool.lease()) {
+                    for (String table : tables) {
+                        String ddl = TypeMapping.createTableIfMissing(source.connection(), context.sourceConfig.dbType,
+                                lease.connection(), target.config.dbType, table);
+                        if (ddl != null) {
+                            System.out.println("Created " + table + " on " + target.config.name + ": " + ddl);
+                        }
                     }
-                });
+                }
+            }
+        }
+    }
+
+    /**
+     * With {@code --defer-indexes}, drops the deferred indexes of every table on every target and
+     * returns one {@link DeferredIndexes} per target, in target order; otherwise returns null. With
+     * several targets each one keeps its definitions in its own file, named after the target.
+     */
+    private static List<DeferredIndexes> dropIndexes(String[] tables, TransferContext context) throws SQLException, IOException {
+        if (!context.options.deferIndexes) {
+            return null;
+        }
+        List<DeferredIndexes> deferred = new ArrayList<>();
+        for (Target target : context.targets) {
+            String file = context.options.deferredIndexFile + (context.targets.size() > 1 ? "." + target.config.name : "");
+            DeferredIndexes indexes = DeferredIndexes.open(file, context.options.resume);
+            try (ConnectionPool.Lease lease = target.pool.lease()) {
+                for (String table : tables) {
+                    indexes.drop(lease.connection(), target.config.dbType, table);
+                }
+            }
+            deferred.add(indexes);
+        }
+        return deferred;
+    }
+
+    /**
+     * Rebuilds what {@link #dropIndexes} dropped. Indexes of a failed table stay dropped, so that
+     * {@code --resume} can keep loading it without them.
+     */
+    private static void rebuildIndexes(List<DeferredIndexes> deferred, String[] tables, Set<String> failedTables,
+                                       TransferContext context) throws IOException {
+        if (deferred == null) {
+            return;
+        }
+        Set<String> loadedTables = new HashSet<>(Arrays.asList(tables));
+        loadedTables.removeAll(failedTables);
+        for (int i = 0; i < deferred.size(); i++) {
+            deferred.get(i).rebuild(context.targets.get(i).pool, loadedTables);
+        }
+    }
+
+    /**
+     * The foreign-key parents of each table, merged over all targets.
+     */
+    private static Map<String, Set<String>> readParents(String[] tables, TransferContext context) throws SQLException {
+        Map<String, Set<String>> parents = new HashMap<>();
+        for (Target target : context.targets) {
+            try (ConnectionPool.Lease lease = target.pool.lease()) {
+                for (Map.Entry<String, Set<String>> entry : TableScheduler.readParents(lease.connection(), tables).entrySet()) {
+                    parents.computeIfAbsent(entry.getKey(), table -> new HashSet<>()).addAll(entry.getValue());
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * A table's mark only moves once every one of its splits made it to the target, or to the
+     * staging directory when extracting.
+     */
+    private static void saveWatermarks(Map<String, Object> newWatermarks, Set<String> failedTables, WatermarkStore watermarks) throws IOException {
+        for (Map.Entry<String, Object> mark : newWatermarks.entrySet()) {
+            if (!failedTables.contains(mark.getKey())) {
+                watermarks.put(mark.getKey(), mark.getValue());
+                System.out.println(mark.getKey() + " synced up to " + mark.getValue());
+            }
+        }
+    }
+
+    /**
+     * Extract phase: writes every split to its own {@link StagingFile} in {@code dir}, in parallel
+     * and largest first, and returns the tables that failed. Files left by an earlier extract of the
+     * same tables are removed first so that a load never mixes two extracts.
+     */
+    private static Set<String> extractTables(String[] tables, List<SplitPlanner.Split> splits, Map<String, Long> estimatedRows, File dir,
+                                             ConnectionPool sourcePool, TransferContext context, ThreadFactory threadFactory) throws IOException, InterruptedException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create staging directory " + dir);
+        }
+        for (String table : tables) {
+            for (File stale : StagingFile.list(dir, table)) {
+                Files.delete(stale.toPath());
+            }
+        }
+        Map<SplitPlanner.Split, File> files = new IdentityHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (SplitPlanner.Split split : splits) {
+            int index = counts.merge(split.tableName, 1, Integer::sum) - 1;
+            files.put(split, StagingFile.fileFor(dir, split.tableName, index));
+        }
+
+        int workers = readerThreads(context.options, sourcePool);
+        int threads = Math.max(1, Math.min(splits.size(), workers));
+        System.out.println("Extracting " + splits.size() + " ranges of " + tables.length + " tables to " + dir + " on " + threads + " workers.");
+        TableScheduler scheduler = new TableScheduler(threads, threadFactory, splits, estimatedRows, new HashMap<>(), split -> {
+            try (ConnectionPool.Lease source = sourcePool.lease()) {
+                extractSplit(source.connection(), split, files.get(split), context);
+            }
+        });
+        Set<String> failed = scheduler.run();
+        context.metrics.report();
+        // The remaining files of a failed table would load as a partial copy
+        for (String table : failed) {
+            for (File file : StagingFile.list(dir, table)) {
+                Files.delete(file.toPath());
+            }
+            System.out.println("Removed the staging files of " + table + ", which did not extract completely.");
+        }
+        return failed;
+    }
+
+    /**
+     * Every reader holds one source connection. Platform threads beyond the pool size would only
+     * queue on it, so they are capped there. Virtual threads cost nothing while they wait, so they
+     * are not capped and the pool alone bounds the reads.
+     */
+    private static int readerThreads(Options options, ConnectionPool sourcePool) {
+        if (options.virtualThreads) {
+            return options.workers > 0 ? options.workers : Integer.MAX_VALUE;
+        }
+        return options.workers > 0 ? Math.min(options.workers, sourcePool.size()) : sourcePool.size();
+    }
+
+    /**
+     * Reads one split from the source and writes it to a staging file, one chunk per batch.
+     */
+    private static void extractSplit(Connection sourceConn, SplitPlanner.Split split, File file, TransferContext context) throws SQLException, IOException {
+        String selectSQL = "SELECT * FROM " + split.tableName + split.whereClause();
+        TransferMetrics.Table metrics = context.metrics.table(split.tableName);
+        try (PreparedStatement stmt = SourceReader.forType(context.sourceConfig.dbType).prepare(sourceConn, selectSQL, context.sourceConfig.fetchSize)) {
+            split.bind(stmt, 1);
+
+            long queryStarted = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                metrics.read(System.nanoTime() - queryStarted);
+                TableColumns columns = TypeMapping.normalize(context.sourceConfig.dbType, TableColumns.of(rs.getMetaData()));
+                ColumnBinder[] binders = ColumnBinder.forColumns(columns);
+                long reserveStarted = System.nanoTime();
+                // a ring of one batch, only for its share of the memory budget
+                try (RowBatchRing ring = new RowBatchRing(1, context.options.batchSize, binders, 1, context.memory);
+                     StagingFile.Writer writer = StagingFile.create(file, columns)) {
+                    metrics.memoryWait(System.nanoTime() - reserveStarted);
+                    boolean more;
+                    do {
+                        RowBatch batch = ring.acquire();
+                        int limit = ring.limit(context.options.batchSize);
+                        long readStarted = System.nanoTime();
+                        int rows = batch.fill(rs, limit, context.options.batchBytes);
+                        more = rows == limit || batch.byteLimited();
+                        ring.settle(batch);
+                        long writeStarted = System.nanoTime();
+                        metrics.read(writeStarted - readStarted);
+                        long before = writer.bytes();
+                        writer.write(batch);
+                        metrics.written(rows, writer.bytes() - before, System.nanoTime() - writeStarted);
+                        ring.recycle(batch);
+                    } while (more);
+                    writer.finish();
+                    System.out.println("Extracted " + split + " to " + file + " (" + writer.bytes() + " bytes)");
+                }
+            }
+        }
+    }
+
+    /**
+     * Load phase: loads the staging files of every table in {@code dir} into the target, one task per
+     * file, and returns the tables that failed. Tables are scheduled as for a direct copy, with the
+     * staged size standing in for the row estimate; the source is not contacted.
+     */
+    private static Set<String> loadStagedTables(String[] tables, File dir, TransferContext context,
+                                                ThreadFactory threadFactory) throws SQLException, IOException, InterruptedException {
+        List<SplitPlanner.Split> splits = new ArrayList<>();
+        Map<SplitPlanner.Split, File> files = new IdentityHashMap<>();
+        Map<String, Long> stagedBytes = new HashMap<>();
+        for (String table : tables) {
+            List<File> tableFiles = StagingFile.list(dir, table);
+            if (tableFiles.isEmpty()) {
+                throw new IOException("No staging files for " + table + " in " + dir);
+            }
+            for (File file : tableFiles) {
+                SplitPlanner.Split split = SplitPlanner.Split.whole(table);
+                splits.add(split);
+                files.put(split, file);
+                stagedBytes.merge(table, file.length(), Long::sum);
+            }
+        }
+
+        List<DeferredIndexes> deferredIndexes = dropIndexes(tables, context);
+        Map<String, Set<String>> parents = readParents(tables, context);
+
+        // Each file is loaded by --writers connections of every target
+        int workers = context.options.workers;
+        if (workers <= 0) {
+            workers = Integer.MAX_VALUE;
+            for (Target target : context.targets) {
+                workers = Math.min(workers, target.pool.size() / context.options.writers);
+            }
+        }
+        int threads = Math.max(1, Math.min(splits.size(), workers));
+        System.out.println("Loading " + splits.size() + " staging files of " + tables.length + " tables from " + dir + " on " + threads + " workers"
+                + (parents.isEmpty() ? "." : "; tables wait for the tables they reference: " + parents));
+        TableScheduler scheduler = new TableScheduler(threads, threadFactory, splits, stagedBytes, parents,
+                split -> loadStagingFile(split, files.get(split), context));
+        Set<String> failed = scheduler.run();
+        context.metrics.report();
+        rebuildIndexes(deferredIndexes, tables, failed, context);
+        return failed;
+    }
+
+    /**
+     * Loads one staging file through the same ring and writers as a direct copy, with the mapped
+     * file in place of the source result set.
+     */
+    private static void loadStagingFile(SplitPlanner.Split split, File file, TransferContext context) throws SQLException, IOException {
+        try (StagingFile.Reader reader = StagingFile.open(file)) {
+            copyBatches(reader::fill, split.tableName, reader.columns(), -1, context, null);
+        }
+        System.out.println("Loaded " + file);
+    }
+
+    /**
+     * Compares every table range by range (see {@link TableVerifier}) instead of copying. With
+     * {@code --repair} the ranges that differ are cleared on the target, copied again and checked
+     * once more. Returns whether the tables match in the end.
+     */
+    private static boolean verifyTables(String[] tables, ConnectionPool sourcePool, TransferContext context,
+                                        ThreadFactory threadFactory) throws SQLException, IOException, InterruptedException {
+        List<SplitPlanner.Split> ranges = new ArrayList<>();
+        try (ConnectionPool.Lease source = sourcePool.lease()) {
+            for (String table : tables) {
+                ranges.addAll(SplitPlanner.plan(source.connection(), table, context.options.verifyChunks, true, false));
+            }
+        }
+
+        Target target = context.targets.get(0);
+        int workers = Math.max(1, Math.min(sourcePool.size(), target.pool.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, threadFactory);
+        try {
+            TableVerifier verifier = new TableVerifier(sourcePool, context.sourceConfig, target.pool, target.config,
+                    executor, context.writerExecutor);
+            List<TableVerifier.Mismatch> mismatches = verifier.verify(ranges);
+            for (TableVerifier.Mismatch mismatch : mismatches) {
+                System.out.println("MISMATCH " + mismatch);
             }
+            if (mismatches.isEmpty() || !context.options.repair) {
+                System.out.println(mismatches.isEmpty() ? "All tables match." : mismatches.size() + " ranges differ.");
+                return mismatches.isEmpty();
+            }
+
+            List<SplitPlanner.Split> repaired = new ArrayList<>();
+            for (TableVerifier.Mismatch mismatch : mismatches) {
+                clearTargetRange(mismatch.range, context);
+                try (ConnectionPool.Lease source = sourcePool.lease()) {
+                    transferTableData(source.connection(), mismatch.range, context, null);
+                }
+                System.out.println("Recopied " + mismatch.range);
+                repaired.add(mismatch.range);
+            }
+            List<TableVerifier.Mismatch> remaining = verifier.verify(repaired);
+            for (TableVerifier.Mismatch mismatch : remaining) {
+                System.out.println("STILL DIFFERENT " + mismatch);
+            }
+            System.out.println(remaining.isEmpty() ? "All tables match after repair." : remaining.size() + " ranges still differ.");
+            return remaining.isEmpty();
         } finally {
-            executorService.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static long estimateRows(Connection conn, String dbType, String table) {
+        try {
+            return TableStats.estimateRows(conn, dbType, table);
+        } catch (SQLException e) {
+            System.out.println("No size estimate for " + table + ": " + e.getMessage());
+            return TableStats.UNKNOWN;
+        }
+    }
+
+    private static Options parseOptions(String[] args, List<String> positional) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (arg.startsWith("--workers=")) {
+                options.workers = Integer.parseInt(arg.substring("--workers=".length()));
+            } else if (arg.equals("--virtual-threads")) {
+                options.virtualThreads = true;
+            } else if (arg.startsWith("--metrics-interval=")) {
+                options.metricsIntervalSeconds = Long.parseLong(arg.substring("--metrics-interval=".length()));
+            } else if (arg.startsWith("--metrics-port=")) {
+                options.metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.equals("--verify")) {
+                options.verify = true;
+            } else if (arg.startsWith("--verify-chunks=")) {
+                options.verifyChunks = Integer.parseInt(arg.substring("--verify-chunks=".length()));
+            } else if (arg.equals("--repair")) {
+                options.repair = true;
+            } else if (arg.startsWith("--extract-to=")) {
+                options.extractTo = arg.substring("--extract-to=".length());
+            } else if (arg.startsWith("--load-from=")) {
+                options.loadFrom = arg.substring("--load-from=".length());
+            } else if (arg.equals("--create-tables")) {
+                options.createTables = true;
+            } else if (arg.startsWith("--splits=")) {
+                options.splits = Integer.parseInt(arg.substring("--splits=".length()));
+            } else if (arg.startsWith("--writer=")) {
+                options.writer = arg.substring("--writer=".length());
+            } else if (arg.startsWith("--writers=")) {
+                options.writers = Integer.parseInt(arg.substring("--writers=".length()));
+            } else if (arg.startsWith("--ring-size=")) {
+                options.ringSize = Integer.parseInt(arg.substring("--ring-size=".length()));
+            } else if (arg.startsWith("--checkpoint=")) {
+                options.checkpointFile = arg.substring("--checkpoint=".length());
+            } else if (arg.equals("--resume")) {
+                options.resume = true;
+            } else if (arg.startsWith("--write-mode=")) {
+                options.writeMode = arg.substring("--write-mode=".length());
+            } else if (arg.equals("--incremental")) {
+                options.incremental = true;
+            } else if (arg.startsWith("--watermarks=")) {
+                options.watermarkFile = arg.substring("--watermarks=".length());
+            } else if (arg.equals("--adaptive-batch")) {
+                options.adaptiveBatch = true;
+            } else if (arg.startsWith("--batch-min=")) {
+                options.batchMin = Integer.parseInt(arg.substring("--batch-min=".length()));
+            } else if (arg.startsWith("--batch-max=")) {
+                options.batchMax = Integer.parseInt(arg.substring("--batch-max=".length()));
+            } else if (arg.startsWith("--batch-bytes=")) {
+                options.batchBytes = Long.parseLong(arg.substring("--batch-bytes=".length()));
+            } else if (arg.startsWith("--memory-budget=")) {
+                options.memoryBudget = MemoryGovernor.parseBudget(arg.substring("--memory-budget=".length()));
+            } else if (arg.startsWith("--batch-latency-ms=")) {
+                options.batchLatencyMillis = Long.parseLong(arg.substring("--batch-latency-ms=".length()));
+            } else if (arg.startsWith("--commit-every=")) {
+                options.commitEvery = Math.max(1, Integer.parseInt(arg.substring("--commit-every=".length())));
+            } else if (arg.startsWith("--commit-interval=")) {
+                options.commitIntervalMillis = Long.parseLong(arg.substring("--commit-interval=".length())) * 1000;
+            } else if (arg.equals("--relax-target")) {
+                options.relaxTarget = true;
+            } else if (arg.equals("--defer-indexes")) {
+                options.deferIndexes = true;
+            } else if (arg.startsWith("--deferred-ddl=")) {
+                options.deferredIndexFile = arg.substring("--deferred-ddl=".length());
+            } else {
+                positional.add(arg);
+            }
         }
+        return options;
     }
 
     private static Config loadConfig(String filePath) throws IOException {
@@ -73,44 +662,324 @@ public class DatabaseTransfer {
         }
     }
 
-    private static void transferTableData(Connection sourceConn, Connection targetConn, String tableName, int batchSize) throws SQLException {
-        String selectSQL = "SELECT * FROM " + tableName;
-        String insertSQL = "INSERT INTO " + tableName + " (%s) VALUES (%s)";
+    /**
+     * Restricts the splits of a table to rows whose watermark column lies between the stored mark
+     * and the current maximum, which is captured now so that rows changing during the copy are
+     * picked up by the next run rather than missed. Tables without a configured watermark column
+     * are copied in full.
+     */
+    private static List<SplitPlanner.Split> applyWatermark(Connection sourceConn, Config config, String table, List<SplitPlanner.Split> splits,
+                                                           WatermarkStore watermarks, Map<String, Object> newWatermarks) throws SQLException {
+        TableConfig tableConfig = config.tables == null ? null
+                : config.tables.stream().filter(t -> table.equals(t.name)).findFirst().orElse(null);
+        if (tableConfig == null || tableConfig.watermarkColumn == null) {
+            System.out.println("No watermarkColumn configured for " + table + ", copying it in full.");
+            return splits;
+        }
 
-        try (Statement stmt = sourceConn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-             ResultSet rs = stmt.executeQuery(selectSQL)) {
+        Object high;
+        try (Statement stmt = sourceConn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(" + tableConfig.watermarkColumn + ") FROM " + table)) {
+            rs.next();
+            high = readKey(rs, 1);
+        }
+        Object low = watermarks.get(table);
+        if (high == null || high.equals(low)) {
+            System.out.println(table + " is up to date.");
+            return new ArrayList<>();
+        }
 
-            ResultSetMetaData rsMetaData = rs.getMetaData();
-            int columnCount = rsMetaData.getColumnCount();
+        newWatermarks.put(table, high);
+        List<SplitPlanner.Split> incremental = new ArrayList<>();
+        for (SplitPlanner.Split split : splits) {
+            incremental.add(split.withWatermark(tableConfig.watermarkColumn, low, high));
+        }
+        return incremental;
+    }
 
-            StringBuilder columns = new StringBuilder();
-            StringBuilder placeholders = new StringBuilder();
-            for (int i = 1; i <= columnCount; i++) {
-                columns.append(rsMetaData.getColumnName(i));
-                placeholders.append("?");
-                if (i < columnCount) {
-                    columns.append(",");
-                    placeholders.append(",");
+    /**
+     * Reads a key or watermark value as one of the types the checkpoint and watermark files can store.
+     */
+    private static Object readKey(ResultSet rs, int column) throws SQLException {
+        Object value;
+        switch (rs.getMetaData().getColumnType(column)) {
+            case Types.DATE:
+                value = rs.getDate(column);
+                break;
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                value = rs.getTimestamp(column);
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                value = rs.getBigDecimal(column);
+                break;
+            default:
+                value = rs.getLong(column);
+                break;
+        }
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * Copies one split, or on {@code --resume} only what is left of it after its checkpoint.
+     * Rows of the remaining range are first removed from the target, because the last batch
+     * before a crash may have been committed without its checkpoint being recorded.
+     */
+    private static void transferSplit(Connection sourceConn, SplitPlanner.Split split, TransferContext context) throws SQLException, IOException {
+        CheckpointStore.Progress progress = null;
+        if (context.checkpoints != null) {
+            CheckpointStore.Checkpoint checkpoint = context.options.resume ? context.checkpoints.get(split.id()) : null;
+            if (checkpoint != null && checkpoint.done) {
+                System.out.println("Skipping " + split + ", already complete.");
+                return;
+            }
+            if (checkpoint != null && checkpoint.lastKey != null && split.isKeyed()) {
+                split = split.resumeAfter(checkpoint.lastKey);
+                System.out.println("Resuming " + split);
+            }
+            if (context.options.resume) {
+                clearTargetRange(split, context);
+                if (checkpoint != null) {
+                    context.metrics.table(split.tableName).resumed();
                 }
             }
+            progress = context.checkpoints.progress(split.id());
+        }
+
+        transferTableData(sourceConn, split, context, progress);
+
+        if (progress != null) {
+            progress.complete();
+        }
+    }
+
+    private static void clearTargetRange(SplitPlanner.Split split, TransferContext context) throws SQLException {
+        for (Target target : context.targets) {
+            try (ConnectionPool.Lease lease = target.pool.lease();
+                 PreparedStatement stmt = lease.connection().prepareStatement("DELETE FROM " + split.tableName + split.whereClause())) {
+                split.bind(stmt, 1);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Copies one split through a {@link RowBatchRing}: this thread reads source rows into batches while
+     * {@code options.writers} writer threads, each on its own target connection, drain them.
+     * When checkpointing, rows are read in key order and every committed batch advances the split's
+     * checkpoint. Read, write and wait times go to the table's {@link TransferMetrics}.
+     */
+    private static void transferTableData(Connection sourceConn, SplitPlanner.Split split, TransferContext context,
+                                          CheckpointStore.Progress progress) throws SQLException, IOException {
+        String tableName = split.tableName;
+        String selectSQL = "SELECT * FROM " + tableName + split.whereClause() + (progress != null ? split.orderByClause() : "");
+
+        TransferMetrics.Table metrics = context.metrics.table(tableName);
+        try (PreparedStatement stmt = SourceReader.forType(context.sourceConfig.dbType).prepare(sourceConn, selectSQL, context.sourceConfig.fetchSize)) {
+            split.bind(stmt, 1);
+
+            long queryStarted = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                metrics.read(System.nanoTime() - queryStarted);
+                TableColumns columns = TypeMapping.normalize(context.sourceConfig.dbType, TableColumns.of(rs.getMetaData()));
+                int keyColumn = progress != null && split.isKeyed() ? columns.indexOf(split.column) : -1;
+                copyBatches((batch, limit) -> batch.fill(rs, limit, context.options.batchBytes), tableName, columns, keyColumn, context, progress);
+            }
+        }
+    }
+
+    /**
+     * Where {@link #copyBatches} reads rows from: a source result set or a staging file.
+     */
+    private interface BatchSource {
+        /**
+         * Fills the batch with at most {@code limit} rows; fewer means the source is exhausted,
+         * unless the batch stopped at its byte limit.
+         */
+        int fill(RowBatch batch, int limit) throws SQLException, IOException;
+    }
 
-            insertSQL = String.format(insertSQL, columns.toString(), placeholders.toString());
+    /**
+     * Moves the rows of one source through a {@link RowBatchRing}: this thread fills batches while
+     * {@code options.writers} writer threads per target, each on its own target connection, drain
+     * them. Every target sees every batch, and a batch is only refilled once all targets have written
+     * it, so the slowest target sets the pace. When {@code keyColumn} is positive every batch carries
+     * its last key for the checkpoint.
+     */
+    private static void copyBatches(BatchSource source, String tableName, TableColumns columns, int keyColumn,
+                                    TransferContext context, CheckpointStore.Progress progress) throws SQLException, IOException {
+        Options options = context.options;
+        TransferMetrics.Table metrics = context.metrics.table(tableName);
+        BatchSizeController batchSize = context.batchSizeFor(tableName);
+        List<Target> targets = context.targets;
+        ColumnBinder[] binders = ColumnBinder.forColumns(columns);
+        long reserveStarted = System.nanoTime();
+        RowBatchRing ring = new RowBatchRing(options.ringSize, batchSize.maxBatchSize(), binders, targets.size(), context.memory);
+        metrics.memoryWait(System.nanoTime() - reserveStarted);
 
-            try (PreparedStatement pstmt = targetConn.prepareStatement(insertSQL)) {
-                int count = 0;
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < targets.size(); t++) {
+            int targetIndex = t;
+            for (int i = 0; i < options.writers; i++) {
+                writers.add(context.writerExecutor.submit(() -> {
+                    writeBatches(ring, targetIndex, targets.get(targetIndex), tableName, columns, context, progress, batchSize, metrics);
+                    return null;
+                }));
+            }
+        }
 
-                while (rs.next()) {
-                    for (int i = 1; i <= columnCount; i++) {
-                        pstmt.setObject(i, rs.getObject(i));
+        try {
+            try {
+                long sequence = 0;
+                while (true) {
+                    long waitStarted = System.nanoTime();
+                    RowBatch batch = ring.acquire();
+                    long readStarted = System.nanoTime();
+                    metrics.readerBlocked(readStarted - waitStarted);
+                    int limit = ring.limit(batchSize.batchSize());
+                    int rows = source.fill(batch, limit);
+                    boolean more = rows == limit || batch.byteLimited();
+                    metrics.read(System.nanoTime() - readStarted);
+                    ring.settle(batch);
+                    if (rows > 0) {
+                        batch.setPosition(sequence++, keyColumn > 0 ? batch.getValue(rows - 1, keyColumn) : null);
+                        ring.publish(batch);
+                    } else {
+                        ring.recycle(batch);
                     }
-                    pstmt.addBatch();
+                    if (!more) {
+                        break;
+                    }
+                }
+                ring.finish(options.writers);
+            } catch (SQLException | IOException | RuntimeException e) {
+                ring.fail(e);
+                try {
+                    awaitWriters(writers);
+                } catch (SQLException writerFailure) {
+                    e.addSuppressed(writerFailure);
+                }
+                throw e;
+            }
+            awaitWriters(writers);
+        } finally {
+            // the batches' LOB spill files
+            ring.close();
+        }
+    }
+
+    /**
+     * Drains the ring's queue for target {@code targetIndex} into one connection of that target. Batches are grouped into transactions of up to
+     * {@code --commit-every} batches or {@code --commit-interval} seconds; checkpoints only advance
+     * once the transaction holding a batch has committed.
+     */
+    private static void writeBatches(RowBatchRing ring, int targetIndex, Target target, String tableName, TableColumns columns,
+                                     TransferContext context, CheckpointStore.Progress progress, BatchSizeController batchSize,
+                                     TransferMetrics.Table metrics) throws SQLException, IOException {
+        Options options = context.options;
+        try (ConnectionPool.Lease lease = target.pool.lease()) {
+            SessionTuning tuning = options.relaxTarget ? SessionTuning.apply(lease.connection(), target.config.dbType) : null;
+            Exception failure = null;
+            try (TableWriter writer = createWriter(lease.connection(), target.config.dbType, tableName, options, batchSize.maxBatchSize())) {
+                Connection targetConn = lease.connection();
+                targetConn.setAutoCommit(false);
+                writer.open(targetConn, tableName, columns);
+                TypeMapping.Plan plan = context.planFor(target, tableName, columns, targetConn);
 
-                    if (++count % batchSize == 0) {
-                        pstmt.executeBatch();
+                Map<Long, Object> uncommitted = new LinkedHashMap<>();
+                long transactionStarted = System.nanoTime();
+                while (true) {
+                    long waitStarted = System.nanoTime();
+                    RowBatch batch = ring.next(targetIndex);
+                    if (batch == null) {
+                        break;
+                    }
+                    long started = System.nanoTime();
+                    metrics.writerIdle(started - waitStarted);
+                    writer.write(plan.view(batch));
+                    writer.flush();
+                    uncommitted.put(batch.sequence(), batch.lastKey());
+                    boolean commitDue = uncommitted.size() >= options.commitEvery
+                            || (options.commitIntervalMillis > 0 && (started - transactionStarted) / 1_000_000L >= options.commitIntervalMillis);
+                    if (commitDue) {
+                        commit(targetConn, uncommitted, progress);
+                        transactionStarted = System.nanoTime();
+                    }
+                    long elapsed = System.nanoTime() - started;
+                    long bytes = batch.estimateBytes();
+                    batchSize.record(batch.size(), bytes, elapsed);
+                    metrics.written(batch.size(), bytes, elapsed);
+                    ring.recycle(batch);
+                }
+                commit(targetConn, uncommitted, progress);
+            } catch (SQLException | IOException | RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                // before the lease returns the connection to the pool; a failure to revert must not
+                // hide the write failure that got us here
+                if (tuning != null) {
+                    try {
+                        tuning.close();
+                    } catch (SQLException e) {
+                        if (failure == null) {
+                            throw e;
+                        }
+                        failure.addSuppressed(e);
                     }
                 }
-                pstmt.executeBatch();
             }
+        } catch (SQLException | IOException | RuntimeException e) {
+            ring.fail(e);
+            throw e;
+        }
+    }
+
+    private static void commit(Connection targetConn, Map<Long, Object> uncommitted, CheckpointStore.Progress progress) throws SQLException, IOException {
+        if (uncommitted.isEmpty()) {
+            return;
+        }
+        targetConn.commit();
+        if (progress != null) {
+            for (Map.Entry<Long, Object> entry : uncommitted.entrySet()) {
+                progress.committed(entry.getKey(), entry.getValue());
+            }
+        }
+        uncommitted.clear();
+    }
+
+    /**
+     * Creates the writer for one writer thread. {@code batchSize} is the largest batch the reader can
+     * produce, so a writer never cuts a batch into several statements.
+     */
+    private static TableWriter createWriter(Connection targetConn, String dbType, String tableName, Options options, int batchSize) throws SQLException {
+        if ("upsert".equalsIgnoreCase(options.writeMode)) {
+            List<String> keys = TableKeys.primaryKey(targetConn, tableName);
+            if (keys.isEmpty()) {
+                throw new SQLException(tableName + " has no primary key on the target, which upserts need");
+            }
+            return TableWriter.createUpsert(options.writer, dbType, batchSize, keys);
+        }
+        return TableWriter.create(options.writer, dbType, batchSize);
+    }
+
+    private static void awaitWriters(List<Future<?>> writers) throws SQLException {
+        SQLException failure = null;
+        for (Future<?> writer : writers) {
+            try {
+                writer.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for writers", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 }
@@ -0,0 +1,360 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Takes the non-unique secondary indexes and the foreign keys of target tables out of the way of a
+ * bulk load and puts them back afterwards. Their definitions are read from {@link DatabaseMetaData}
+ * and written to a SQL file before anything is dropped, so an interrupted run can be finished with
+ * {@code --resume} or by running the file by hand. Primary keys and unique indexes stay in place,
+ * because upserts and duplicate detection depend on them.
+ */
+public class DeferredIndexes {
+
+    /**
+     * One dropped index or foreign key and the statement that recreates it.
+     */
+    public static class Definition {
+        public final String kind;
+        public final String tableName;
+        public final String name;
+        public final String createSQL;
+
+        Definition(String kind, String tableName, String name, String createSQL) {
+            this.kind = kind;
+            this.tableName = tableName;
+            this.name = name;
+            this.createSQL = createSQL;
+        }
+    }
+
+    private static final String INDEX = "INDEX";
+    private static final String FOREIGN_KEY = "FOREIGN KEY";
+
+    private final File file;
+    private final List<Definition> definitions = new ArrayList<>();
+
+    private DeferredIndexes(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the definition file at {@code path}. With {@code resume} the definitions left by an
+     * interrupted run are taken over; without it a leftover file is an error, since its indexes are
+     * still missing on the target.
+     */
+    public static DeferredIndexes open(String path, boolean resume) throws IOException {
+        DeferredIndexes deferred = new DeferredIndexes(new File(path));
+        if (deferred.file.exists()) {
+            if (!resume) {
+                throw new IOException("A previous run left dropped indexes in " + path
+                        + "; run it with --resume or execute the statements in that file first");
+            }
+            deferred.load();
+        }
+        return deferred;
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String header;
+            while ((header = reader.readLine()) != null) {
+                String statement = reader.readLine();
+                String[] fields = header.startsWith("-- ") ? header.substring(3).split("\t") : new String[0];
+                if (statement == null || fields.length != 3 || !statement.endsWith(";")) {
+                    continue;
+                }
+                definitions.add(new Definition(fields[0], fields[1], fields[2], statement.substring(0, statement.length() - 1)));
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        if (definitions.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Definition definition : definitions) {
+                writer.write("-- " + definition.kind + "\t" + definition.tableName + "\t" + definition.name + "\n");
+                writer.write(definition.createSQL + ";\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Records the secondary indexes and foreign keys of {@code tableName} and drops them, foreign
+     * keys first. A table whose definitions were taken over from an interrupted run is left alone.
+     * If a drop fails, the definitions it did not get to are taken out of the file again.
+     */
+    public synchronized void drop(Connection conn, String dbType, String tableName) throws SQLException, IOException {
+        for (Definition definition : definitions) {
+            if (definition.tableName.equals(tableName)) {
+                return;
+            }
+        }
+
+        List<String> dropStatements = new ArrayList<>();
+        List<Definition> captured = new ArrayList<>();
+        captureForeignKeys(conn, dbType, tableName, captured, dropStatements);
+        captureIndexes(conn, dbType, tableName, captured, dropStatements);
+        if (captured.isEmpty()) {
+            return;
+        }
+        definitions.addAll(captured);
+        save();
+
+        int dropped = 0;
+        try (Statement stmt = conn.createStatement()) {
+            for (; dropped < captured.size(); dropped++) {
+                stmt.execute(dropStatements.get(dropped));
+                System.out.println("Dropped " + captured.get(dropped).kind.toLowerCase() + " " + captured.get(dropped).name + " on " + tableName);
+            }
+        } catch (SQLException e) {
+            definitions.removeAll(captured.subList(dropped, captured.size()));
+            try {
+                save();
+            } catch (IOException saveFailure) {
+                e.addSuppressed(saveFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static void captureForeignKeys(Connection conn, String dbType, String tableName,
+                                           List<Definition> captured, List<String> dropStatements) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(conn, tableName);
+        Map<String, List<String[]>> keys = new LinkedHashMap<>();
+        Map<String, String> references = new HashMap<>();
+        Map<String, String> rules = new HashMap<>();
+        try (ResultSet rs = conn.getMetaData().getImportedKeys(null, parts[0], parts[1])) {
+            while (rs.next()) {
+                String name = rs.getString("FK_NAME");
+                if (name == null) {
+                    continue;
+                }
+                keys.computeIfAbsent(name, n -> new ArrayList<>())
+                        .add(new String[]{rs.getString("FKCOLUMN_NAME"), rs.getString("PKCOLUMN_NAME")});
+                String pkSchema = rs.getString("PKTABLE_SCHEM") != null ? rs.getString("PKTABLE_SCHEM") : rs.getString("PKTABLE_CAT");
+                references.put(name, (parts[0] != null && pkSchema != null ? pkSchema + "." : "") + rs.getString("PKTABLE_NAME"));
+                rules.put(name, rule("ON UPDATE", rs.getShort("UPDATE_RULE")) + rule("ON DELETE", rs.getShort("DELETE_RULE")));
+            }
+        }
+
+        for (Map.Entry<String, List<String[]>> key : keys.entrySet()) {
+            StringJoiner columns = new StringJoiner(", ");
+            StringJoiner referenced = new StringJoiner(", ");
+            for (String[] pair : key.getValue()) {
+                columns.add(pair[0]);
+                referenced.add(pair[1]);
+            }
+            String name = key.getKey();
+            captured.add(new Definition(FOREIGN_KEY, tableName, name, "ALTER TABLE " + tableName + " ADD CONSTRAINT " + name
+                    + " FOREIGN KEY (" + columns + ") REFERENCES " + references.get(name) + " (" + referenced + ")" + rules.get(name)));
+            dropStatements.add("mysql".equalsIgnoreCase(dbType)
+                    ? "ALTER TABLE " + tableName + " DROP FOREIGN KEY " + name
+                    : "ALTER TABLE " + tableName + " DROP CONSTRAINT " + name);
+        }
+    }
+
+    private static String rule(String action, short rule) {
+        switch (rule) {
+            case DatabaseMetaData.importedKeyCascade:
+                return " " + action + " CASCADE";
+            case DatabaseMetaData.importedKeySetNull:
+                return " " + action + " SET NULL";
+            case DatabaseMetaData.importedKeySetDefault:
+                return " " + action + " SET DEFAULT";
+            case DatabaseMetaData.importedKeyRestrict:
+                return " " + action + " RESTRICT";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Captures plain column indexes only; expression and partial indexes cannot be rebuilt from the
+     * metadata and are left in place. On PostgreSQL the index is recreated from its own definition,
+     * which keeps its access method, operator classes and INCLUDE columns. On MySQL FULLTEXT and
+     * SPATIAL indexes and indexes on column prefixes are left in place as well.
+     */
+    private static void captureIndexes(Connection conn, String dbType, String tableName,
+                                       List<Definition> captured, List<String> dropStatements) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        String[] parts = SplitPlanner.splitQualifiedName(conn, tableName);
+
+        Set<String> tableColumns = new HashSet<>();
+        try (ResultSet rs = metaData.getColumns(null, parts[0], parts[1], null)) {
+            while (rs.next()) {
+                tableColumns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+
+        Map<String, TreeMap<Short, String>> indexes = new LinkedHashMap<>();
+        Set<String> unsupported = new HashSet<>();
+        try (ResultSet rs = metaData.getIndexInfo(null, parts[0], parts[1], false, false)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name == null || !rs.getBoolean("NON_UNIQUE") || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    continue;
+                }
+                String column = rs.getString("COLUMN_NAME");
+                if (column == null || !tableColumns.contains(column) || rs.getString("FILTER_CONDITION") != null) {
+                    unsupported.add(name);
+                    continue;
+                }
+                String order = "D".equals(rs.getString("ASC_OR_DESC")) ? " DESC" : "";
+                indexes.computeIfAbsent(name, n -> new TreeMap<>()).put(rs.getShort("ORDINAL_POSITION"), column + order);
+            }
+        }
+        Map<String, String> definitions = new HashMap<>();
+        if ("mysql".equalsIgnoreCase(dbType)) {
+            findMysqlSpecialIndexes(conn, parts, unsupported);
+        } else if ("postgres".equalsIgnoreCase(dbType) || "postgresql".equalsIgnoreCase(dbType)) {
+            findPostgresDefinitions(conn, parts, definitions);
+        }
+
+        for (Map.Entry<String, TreeMap<Short, String>> index : indexes.entrySet()) {
+            String name = index.getKey();
+            if (unsupported.contains(name)) {
+                System.out.println("Keeping index " + name + " on " + tableName + ": it is not a plain column index.");
+                continue;
+            }
+            captured.add(new Definition(INDEX, tableName, name, definitions.getOrDefault(name,
+                    "CREATE INDEX " + name + " ON " + tableName + " (" + String.join(", ", index.getValue().values()) + ")")));
+            if ("mysql".equalsIgnoreCase(dbType)) {
+                dropStatements.add("DROP INDEX " + name + " ON " + tableName);
+            } else {
+                dropStatements.add("DROP INDEX " + (parts[0] != null ? parts[0] + "." : "") + name);
+            }
+        }
+    }
+
+    /**
+     * Adds the MySQL indexes that CREATE INDEX on the bare columns would not rebuild as they were:
+     * FULLTEXT and SPATIAL ones, and those on a prefix of a column.
+     */
+    private static void findMysqlSpecialIndexes(Connection conn, String[] parts, Set<String> unsupported) throws SQLException {
+        String sql = "SELECT DISTINCT INDEX_NAME FROM information_schema.STATISTICS"
+                + " WHERE TABLE_SCHEMA = COALESCE(?, DATABASE()) AND TABLE_NAME = ?"
+                + " AND (INDEX_TYPE NOT IN ('BTREE', 'HASH') OR SUB_PART IS NOT NULL)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, parts[0]);
+            stmt.setString(2, parts[1]);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    unsupported.add(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * The CREATE INDEX statement of every index of a PostgreSQL table, by index name.
+     */
+    private static void findPostgresDefinitions(Connection conn, String[] parts, Map<String, String> definitions) throws SQLException {
+        String sql = "SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = COALESCE(?, current_schema()) AND tablename = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, parts[0]);
+            stmt.setString(2, parts[1]);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    definitions.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+    }
+
+    /**
+     * Recreates what was dropped for {@code tables}: all indexes in parallel, each on its own pooled
+     * connection, then the foreign keys one at a time, since validating them reads the new indexes.
+     * Definitions that fail stay in the file for the next run. One that already exists counts as
+     * rebuilt, since a run killed between writing the file and dropping it leaves it in place.
+     */
+    public synchronized void rebuild(ConnectionPool pool, Set<String> tables) throws IOException {
+        List<Definition> indexes = new ArrayList<>();
+        List<Definition> foreignKeys = new ArrayList<>();
+        for (Definition definition : definitions) {
+            if (tables.contains(definition.tableName)) {
+                (INDEX.equals(definition.kind) ? indexes : foreignKeys).add(definition);
+            }
+        }
+        if (indexes.isEmpty() && foreignKeys.isEmpty()) {
+            return;
+        }
+
+        long started = System.nanoTime();
+        int total = indexes.size() + foreignKeys.size();
+        AtomicInteger finished = new AtomicInteger();
+        Set<Definition> rebuilt = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(indexes.size(), pool.size())));
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Definition index : indexes) {
+                results.add(executor.submit(() -> recreate(pool, index, rebuilt, finished, total)));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Definition foreignKey : foreignKeys) {
+            recreate(pool, foreignKey, rebuilt, finished, total);
+        }
+        System.out.println("Rebuilt " + rebuilt.size() + " of " + total + " indexes and foreign keys in "
+                + (System.nanoTime() - started) / 1_000_000L + " ms");
+
+        definitions.removeAll(rebuilt);
+        save();
+    }
+
+    private static void recreate(ConnectionPool pool, Definition definition, Set<Definition> rebuilt, AtomicInteger finished, int total) {
+        String what = definition.kind.toLowerCase() + " " + definition.name + " on " + definition.tableName;
+        long started = System.nanoTime();
+        try (ConnectionPool.Lease lease = pool.lease();
+             Statement stmt = lease.connection().createStatement()) {
+            if (exists(lease.connection(), definition)) {
+                rebuilt.add(definition);
+                System.out.println("[" + finished.incrementAndGet() + "/" + total + "] Kept " + what + ", which was never dropped");
+                return;
+            }
+            stmt.execute(definition.createSQL);
+            rebuilt.add(definition);
+            System.out.println("[" + finished.incrementAndGet() + "/" + total + "] Rebuilt " + what
+                    + " in " + (System.nanoTime() - started) / 1_000_000L + " ms");
+        } catch (SQLException e) {
+            System.out.println("[" + finished.incrementAndGet() + "/" + total + "] Failed to rebuild " + what + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean exists(Connection conn, Definition definition) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(conn, definition.tableName);
+        boolean index = INDEX.equals(definition.kind);
+        try (ResultSet rs = index
+                ? conn.getMetaData().getIndexInfo(null, parts[0], parts[1], false, true)
+                : conn.getMetaData().getImportedKeys(null, parts[0], parts[1])) {
+            while (rs.next()) {
+                if (definition.name.equalsIgnoreCase(rs.getString(index ? "INDEX_NAME" : "FK_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
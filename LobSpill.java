@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file holding the large-object values of one column of a {@link RowBatch} that are
+ * too big to keep on the heap. Values are appended while the batch is filled and read back as
+ * streams by the writers, any number of them at once; the next fill starts writing at the beginning
+ * of the file again. Text is kept as UTF-8.
+ */
+public class LobSpill implements AutoCloseable {
+
+    /**
+     * Values up to this many bytes (or chars) stay on the heap as a byte array or string.
+     */
+    static final int INLINE_BYTES = 256 * 1024;
+
+    private Path path;
+    private FileChannel channel;
+    private long end;
+
+    /**
+     * One value in the spill file.
+     */
+    public static class Value {
+        private final LobSpill spill;
+        private final long offset;
+        private final long length;
+        private final long chars;
+
+        Value(LobSpill spill, long offset, long length, long chars) {
+            this.spill = spill;
+            this.offset = offset;
+            this.length = length;
+            this.chars = chars;
+        }
+
+        /**
+         * Length in bytes; for text, of its UTF-8 form.
+         */
+        public long length() {
+            return length;
+        }
+
+        public boolean isText() {
+            return chars >= 0;
+        }
+
+        /**
+         * Length of a text value in chars.
+         */
+        public long chars() {
+            return chars;
+        }
+
+        public InputStream openStream() {
+            return new BufferedInputStream(new SpillInputStream(spill.channel, offset, offset + length), 64 * 1024);
+        }
+
+        public Reader openReader() {
+            return new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the whole value into memory, for the few consumers that cannot stream it.
+         */
+        public byte[] bytes() throws IOException {
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("LOB value of " + length + " bytes does not fit in memory");
+            }
+            byte[] bytes = new byte[(int) length];
+            try (InputStream in = openStream()) {
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n < 0) {
+                        throw new EOFException("LOB spill file truncated");
+                    }
+                    read += n;
+                }
+            }
+            return bytes;
+        }
+
+        public String text() throws IOException {
+            return new String(bytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Forgets every value; the file is overwritten from the start by the next ones.
+     */
+    void reset() {
+        end = 0;
+    }
+
+    /**
+     * Appends a binary value whose first {@code headLength} bytes were already read into {@code head}
+     * and whose rest is still in {@code in}.
+     */
+    Value write(byte[] head, int headLength, InputStream in) throws IOException {
+        OutputStream out = open();
+        long offset = end;
+        out.write(head, 0, headLength);
+        long length = headLength + transfer(in, out);
+        out.flush();
+        end += length;
+        return new Value(this, offset, length, -1);
+    }
+
+    /**
+     * Appends a text value whose first {@code headLength} chars were already read into {@code head}
+     * and whose rest is still in {@code in}.
+     */
+    Value write(char[] head, int headLength, Reader in) throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(open());
+        Writer out = new BufferedWriter(new OutputStreamWriter(counted, StandardCharsets.UTF_8), 64 * 1024);
+        long offset = end;
+        out.write(head, 0, headLength);
+        long chars = headLength;
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            chars += n;
+        }
+        out.flush();
+        end += counted.count;
+        return new Value(this, offset, counted.count, chars);
+    }
+
+    /**
+     * A stream that appends at the current end of the file. Callers flush it but never close it,
+     * which would close the channel.
+     */
+    private OutputStream open() throws IOException {
+        if (channel == null) {
+            path = Files.createTempFile("lob", ".spill");
+            path.toFile().deleteOnExit();
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        channel.position(end);
+        return new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+    }
+
+    private static long transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(path);
+            channel = null;
+        }
+    }
+
+    /**
+     * Reads a range of the file with positional reads, so several readers can share the channel.
+     */
+    private static class SpillInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        SpillInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) {
+                throw new EOFException("LOB spill file truncated");
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
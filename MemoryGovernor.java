@@ -0,0 +1,125 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A byte budget shared by every table task of a run, for the rows they hold in memory at once.
+ * Each {@link RowBatchRing} reserves its batches before it allocates them and gives them back once
+ * the table is copied. When the budget runs low a reservation is granted in part, so the batches
+ * are made smaller, and once even the smallest acceptable part does not fit, the reader waits for
+ * other tables to finish. Only a reader that holds nothing yet waits, so the rings that do hold
+ * memory always drain and a waiting reader cannot deadlock. Waiting is done on a lock rather than
+ * a monitor, so a waiting virtual thread does not pin its carrier.
+ */
+public class MemoryGovernor {
+
+    private final long budget;
+    private long reserved;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    public MemoryGovernor(long budget) {
+        this.budget = Math.max(1, budget);
+    }
+
+    /**
+     * A governor that never makes anybody wait.
+     */
+    public static MemoryGovernor unlimited() {
+        return new MemoryGovernor(Long.MAX_VALUE);
+    }
+
+    /**
+     * Parses {@code --memory-budget}: a byte count, or a percentage of the maximum heap such as {@code 40%}.
+     */
+    public static long parseBudget(String value) {
+        if (value.endsWith("%")) {
+            double percent = Double.parseDouble(value.substring(0, value.length() - 1));
+            return (long) (Runtime.getRuntime().maxMemory() * percent / 100);
+        }
+        return Long.parseLong(value);
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * Reserves up to {@code wanted} bytes and returns how many were granted: all of them if they
+     * fit, otherwise what is left of the budget as long as that is at least {@code minimum}, or 0 if
+     * nothing could be granted within {@code timeoutMillis}. A request larger than the whole budget
+     * is treated as a request for the whole budget.
+     */
+    public long tryReserve(long wanted, long minimum, long timeoutMillis) throws InterruptedException {
+        wanted = Math.min(Math.max(1, wanted), budget);
+        minimum = Math.min(Math.max(1, minimum), wanted);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (budget - reserved < minimum) {
+                if (remaining <= 0) {
+                    return 0;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            long granted = Math.min(wanted, budget - reserved);
+            reserved += granted;
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #tryReserve} but waits as long as it takes, for callers whose own reservations
+     * are not held up by anybody else.
+     */
+    public long reserve(long wanted, long minimum) throws InterruptedException {
+        long granted;
+        do {
+            granted = tryReserve(wanted, minimum, 1000);
+        } while (granted == 0);
+        return granted;
+    }
+
+    /**
+     * The rows of about {@code rowBytes} bytes each that fit in {@code granted} bytes, between 1 and {@code limit}.
+     */
+    public static int rowsFor(long granted, long rowBytes, int limit) {
+        return (int) Math.max(1, Math.min(limit, granted / Math.max(1, rowBytes)));
+    }
+
+    /**
+     * Accounts for bytes already in memory without waiting, when a batch turned out larger than
+     * its share of a reservation. The budget may be exceeded until they are released.
+     */
+    public void force(long bytes) {
+        lock.lock();
+        try {
+            reserved += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes) {
+        if (bytes > 0) {
+            lock.lock();
+            try {
+                reserved -= bytes;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public long reserved() {
+        lock.lock();
+        try {
+            return reserved;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
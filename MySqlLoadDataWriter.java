@@ -0,0 +1,101 @@
+import com.mysql.cj.jdbc.JdbcStatement;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.*;
+
+/**
+ * Loads rows into MySQL with {@code LOAD DATA LOCAL INFILE}, one statement per chunk of up to
+ * {@code batchSize} rows of a batch. Connector/J reads the chunk through its local-infile stream,
+ * which encodes the rows as the driver asks for them and reads large objects from their spill files
+ * a piece at a time, so no temp file and no encoded copy of the chunk is ever made.
+ * The target URL must allow it with {@code allowLoadLocalInfile=true}.
+ *
+ * <p>With LOCAL, MySQL turns duplicate keys, truncated values and failed conversions into warnings
+ * and skips or alters the rows. A load that reports fewer rows than were sent, or any warning, is
+ * therefore treated as a failure.
+ */
+public class MySqlLoadDataWriter implements TableWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final int batchSize;
+    private final TextRowEncoder encoder = new TextRowEncoder("", '1', '0', INITIAL_BUFFER_SIZE);
+    private Statement stmt;
+    private String tableName;
+    private String loadSQL;
+
+    public MySqlLoadDataWriter(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException {
+        // Binary values travel as hex and are decoded on the server through user variables
+        StringBuilder columnList = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        for (int i = 1; i <= columns.count(); i++) {
+            if (TextRowEncoder.isBinary(columns.types[i])) {
+                columnList.append("@v").append(i);
+                assignments.append(assignments.length() == 0 ? " SET " : ", ")
+                        .append(columns.names[i]).append(" = UNHEX(@v").append(i).append(")");
+            } else {
+                columnList.append(columns.names[i]);
+            }
+            if (i < columns.count()) {
+                columnList.append(",");
+            }
+        }
+
+        this.tableName = tableName;
+        loadSQL = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + tableName
+                + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'"
+                + " (" + columnList + ")" + assignments;
+        stmt = targetConn.createStatement();
+    }
+
+    @Override
+    public void write(RowBatch batch) throws SQLException {
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            load(batch, from, Math.min(batch.size(), from + batchSize));
+        }
+    }
+
+    private void load(RowBatch batch, int from, int to) throws SQLException {
+        JdbcStatement mysqlStmt = stmt.unwrap(JdbcStatement.class);
+        try (TextRowEncoder.RowStream rows = encoder.stream(batch, from, to)) {
+            mysqlStmt.setLocalInfileInputStream(rows);
+            stmt.clearWarnings();
+            stmt.execute(loadSQL);
+            check(stmt.getUpdateCount(), rows.rows(), stmt.getWarnings());
+        } catch (IOException | UncheckedIOException e) {
+            throw new SQLException("Could not stream rows to LOAD DATA: " + e.getMessage(), e);
+        } finally {
+            mysqlStmt.setLocalInfileInputStream(null);
+        }
+    }
+
+    private void check(int loaded, int sent, SQLWarning warnings) throws SQLException {
+        if (loaded == sent && warnings == null) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("LOAD DATA into " + tableName + " loaded " + loaded + " of " + sent + " rows");
+        int shown = 0;
+        for (SQLWarning warning = warnings; warning != null && shown < 5; warning = warning.getNextWarning()) {
+            message.append(shown++ == 0 ? ": " : "; ").append(warning.getMessage());
+        }
+        throw new SQLException(message.toString(), warnings);
+    }
+
+    @Override
+    public void flush() {
+        // every write has already been loaded
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (stmt != null) {
+            stmt.close();
+        }
+    }
+}
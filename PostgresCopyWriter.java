@@ -0,0 +1,61 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.*;
+
+/**
+ * Streams rows into PostgreSQL with {@code COPY ... FROM STDIN} in text format. Rows, and large
+ * objects a piece at a time, are encoded as they are handed to the driver in chunks of a small
+ * reusable buffer, so nothing beyond that buffer is held in memory. A flush ends the current COPY;
+ * the next write starts another.
+ */
+public class PostgresCopyWriter implements TableWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // bytea hex format; the backslash itself has to be escaped in COPY text
+    private final TextRowEncoder encoder = new TextRowEncoder("\\\\x", 't', 'f', BUFFER_SIZE);
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+    private CopyManager copyManager;
+    private String copySQL;
+    private CopyIn copyIn;
+
+    @Override
+    public void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException {
+        copySQL = "COPY " + tableName + " (" + columns.columnList() + ") FROM STDIN";
+        copyManager = targetConn.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    @Override
+    public void write(RowBatch batch) throws SQLException {
+        if (copyIn == null) {
+            copyIn = copyManager.copyIn(copySQL);
+        }
+        try (TextRowEncoder.RowStream rows = encoder.stream(batch, 0, batch.size())) {
+            int n;
+            while ((n = rows.read(chunk)) > 0) {
+                copyIn.writeToCopy(chunk, 0, n);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new SQLException("Could not stream rows to COPY: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        if (copyIn != null) {
+            copyIn.endCopy();
+            copyIn = null;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (copyIn != null && copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+}
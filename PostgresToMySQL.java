@@ -1,16 +1,17 @@
+import java.io.IOException;
 import java.sql.*;
 
 public class PostgresToMySQL {
 
     private static final int BATCH_SIZE = 1000; // Number of records to process per batch
 
-    public static void main(String[] args) throws SQLException, ClassNotFoundException {
+    public static void main(String[] args) throws SQLException, IOException, ClassNotFoundException {
         // Replace with your connection details
         String postgresUrl = "jdbc:postgresql://localhost:5432/postgres_db";
         String postgresUser = "postgres_user";
         String postgresPassword = "postgres_password";
 
-        String mysqlUrl = "jdbc:mysql://localhost:3306/mysql_db";
+        String mysqlUrl = "jdbc:mysql://localhost:3306/mysql_db?allowLoadLocalInfile=true";
         String mysqlUser = "mysql_user";
         String mysqlPassword = "mysql_password";
 
@@ -22,43 +23,28 @@ public class PostgresToMySQL {
         Connection postgresConn = DriverManager.getConnection(postgresUrl, postgresUser, postgresPassword);
         Connection mysqlConn = DriverManager.getConnection(mysqlUrl, mysqlUser, mysqlPassword);
 
-        // Prepare statements
+        // Bulk-load into MySQL with LOAD DATA LOCAL INFILE (mysqlUrl needs allowLoadLocalInfile=true)
         PreparedStatement postgresStmt = postgresConn.prepareStatement("SELECT * FROM your_table");
-        PreparedStatement mysqlStmt = mysqlConn.prepareStatement("INSERT INTO your_table (column1, column2, ...) VALUES (?, ?, ...)");
-
-        // Process records in batches
         ResultSet resultSet = postgresStmt.executeQuery();
-        int count = 0;
-        while (resultSet.next()) {
-            // Extract data from Postgres result set
-            // Replace with your actual column names and data types
-            String data1 = resultSet.getString("column1");
-            int data2 = resultSet.getInt("column2");
-            // ...
-
-            // Set values for MySQL insert statement
-            mysqlStmt.setString(1, data1);
-            mysqlStmt.setInt(2, data2);
-            // ... (set values for all columns)
-
-            mysqlStmt.addBatch();
-            count++;
-
-            if (count % BATCH_SIZE == 0) {
-                mysqlStmt.executeBatch();
-                count = 0; // Reset counter for next batch
+        try (MySqlLoadDataWriter writer = new MySqlLoadDataWriter(BATCH_SIZE)) {
+            // jsonb, uuid and arrays are read as text; arrays go to MySQL as JSON
+            TableColumns columns = TypeMapping.normalize("postgresql", TableColumns.of(resultSet.getMetaData()));
+            TypeMapping.Plan plan = TypeMapping.plan(mysqlConn, "mysql", "your_table", columns);
+            writer.open(mysqlConn, "your_table", columns);
+
+            // Rows are flushed to MySQL every BATCH_SIZE rows, or sooner once they hold 64 MB of bytea/text;
+            // values over 256 KB wait in temporary files instead of on the heap
+            try (RowBatch batch = new RowBatch(BATCH_SIZE, ColumnBinder.forColumns(columns))) {
+                while (batch.fill(resultSet, BATCH_SIZE, 64L * 1024 * 1024) > 0) {
+                    writer.write(plan.view(batch));
+                }
             }
-        }
-
-        // Handle remaining records in the batch (if any)
-        if (count > 0) {
-            mysqlStmt.executeBatch();
+            writer.flush();
         }
 
         // Close resources
         resultSet.close();
         postgresStmt.close();
-        mysqlStmt.close();
         postgresConn.close();
         mysqlConn.close();
 
@@ -0,0 +1,67 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Makes any writer idempotent per key: before a batch is written, target rows with the same
+ * primary key are deleted in the same transaction. Used for incremental syncs, where rows that
+ * changed on the source already exist on the target.
+ */
+public class ReplacingWriter implements TableWriter {
+
+    private final TableWriter delegate;
+    private final List<String> keyColumns;
+    private PreparedStatement deleteStmt;
+    private int[] keyIndexes;
+
+    public ReplacingWriter(TableWriter delegate, List<String> keyColumns) {
+        this.delegate = delegate;
+        this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException {
+        keyIndexes = new int[keyColumns.size()];
+        StringBuilder deleteSQL = new StringBuilder("DELETE FROM " + tableName + " WHERE ");
+        for (int k = 0; k < keyColumns.size(); k++) {
+            keyIndexes[k] = columns.indexOf(keyColumns.get(k));
+            if (keyIndexes[k] < 0) {
+                throw new SQLException("Key column " + keyColumns.get(k) + " of " + tableName + " is not selected from the source");
+            }
+            deleteSQL.append(k > 0 ? " AND " : "").append(columns.names[keyIndexes[k]]).append(" = ?");
+        }
+        deleteStmt = targetConn.prepareStatement(deleteSQL.toString());
+        delegate.open(targetConn, tableName, columns);
+    }
+
+    @Override
+    public void write(RowBatch batch) throws SQLException {
+        // a bulk-load writer may hold the connection in the middle of a COPY; finish it before deleting
+        delegate.flush();
+        for (int r = 0; r < batch.size(); r++) {
+            for (int k = 0; k < keyIndexes.length; k++) {
+                batch.binder(keyIndexes[k]).bind(deleteStmt, k + 1, batch.vector(keyIndexes[k]), r);
+            }
+            deleteStmt.addBatch();
+        }
+        deleteStmt.executeBatch();
+        delegate.write(batch);
+    }
+
+    @Override
+    public void flush() throws SQLException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            delegate.close();
+        } finally {
+            if (deleteStmt != null) {
+                deleteStmt.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preallocated block of up to {@code capacity} rows, stored column by column in primitive arrays
+ * where the column type allows it. Batches are filled by a reader, drained by a writer and then
+ * reused, so nothing is allocated per row for integer, floating-point and boolean columns.
+ * Large-object values too big for the heap live in temporary files that {@link #close} deletes.
+ */
+public class RowBatch implements AutoCloseable {
+
+    /**
+     * The values of one column; only the array matching the binder's storage is allocated.
+     */
+    public static class ColumnVector {
+        public final long[] longs;
+        public final double[] doubles;
+        public final Object[] objects;
+        public final boolean[] nulls;
+        /** Large-object values of this column kept off the heap; created by the first one. */
+        LobSpill spill;
+
+        ColumnVector(ColumnBinder.Storage storage, int capacity) {
+            longs = storage == ColumnBinder.Storage.LONG || storage == ColumnBinder.Storage.BOOLEAN ? new long[capacity] : null;
+            doubles = storage == ColumnBinder.Storage.DOUBLE ? new double[capacity] : null;
+            objects = storage == ColumnBinder.Storage.OBJECT ? new Object[capacity] : null;
+            nulls = new boolean[capacity];
+        }
+    }
+
+    private final ColumnBinder[] binders;
+    private final ColumnVector[] vectors;
+    private final int[] lobColumns;
+    private final int capacity;
+    private int size;
+    private boolean byteLimited;
+    private long sequence;
+    private Object lastKey;
+    /** Targets that still have to write this batch; kept by {@link RowBatchRing}. */
+    final AtomicInteger pendingTargets = new AtomicInteger();
+    /** Bytes over its share of the ring's grant that this batch was counted at; kept by {@link RowBatchRing}. */
+    long reservedBytes;
+
+    public RowBatch(int capacity, ColumnBinder[] binders) {
+        this.capacity = capacity;
+        this.binders = binders;
+        this.vectors = new ColumnVector[binders.length];
+        for (int i = 1; i < binders.length; i++) {
+            vectors[i] = new ColumnVector(binders[i].storage(), capacity);
+        }
+        lobColumns = lobColumns(binders);
+    }
+
+    private static int[] lobColumns(ColumnBinder[] binders) {
+        int count = 0;
+        int[] columns = new int[binders.length];
+        for (int i = 1; i < binders.length; i++) {
+            if (binders[i] instanceof ColumnBinder.LobBinder) {
+                columns[count++] = i;
+            }
+        }
+        return Arrays.copyOf(columns, count);
+    }
+
+    private RowBatch(RowBatch batch, ColumnBinder[] binders) {
+        this.capacity = batch.capacity;
+        this.binders = binders;
+        this.vectors = batch.vectors;
+        this.lobColumns = batch.lobColumns;
+        this.size = batch.size;
+        this.sequence = batch.sequence;
+        this.lastKey = batch.lastKey;
+    }
+
+    /**
+     * A view of the current rows of this batch that binds and encodes them with other binders of
+     * the same storage, such as the ones a {@link TypeMapping.Plan} picks for one target.
+     */
+    public RowBatch withBinders(ColumnBinder[] binders) {
+        return new RowBatch(this, binders);
+    }
+
+    /**
+     * Replaces the contents of this batch with the next rows of the result set and returns how many
+     * were read. Fewer rows than the capacity means the result set is exhausted.
+     */
+    public int fill(ResultSet rs) throws SQLException {
+        return fill(rs, capacity);
+    }
+
+    /**
+     * Like {@link #fill(ResultSet)} but reads at most {@code limit} rows; fewer rows than the
+     * limit means the result set is exhausted.
+     */
+    public int fill(ResultSet rs, int limit) throws SQLException {
+        return fill(rs, limit, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #fill(ResultSet, int)}, but when the batch has large-object columns it also stops
+     * after the row that brings their values to {@code byteLimit} bytes. Fewer rows than the limit
+     * then only mean the result set is exhausted if {@link #byteLimited} is false.
+     */
+    public int fill(ResultSet rs, int limit, long byteLimit) throws SQLException {
+        limit = Math.min(limit, capacity);
+        size = 0;
+        byteLimited = false;
+        for (int column : lobColumns) {
+            if (vectors[column].spill != null) {
+                vectors[column].spill.reset();
+            }
+        }
+        long lobBytes = 0;
+        while (size < limit && rs.next()) {
+            for (int i = 1; i < binders.length; i++) {
+                binders[i].read(rs, i, vectors[i], size);
+            }
+            for (int column : lobColumns) {
+                lobBytes += ColumnBinder.LobBinder.size(vectors[column].objects[size]);
+            }
+            size++;
+            if (lobBytes >= byteLimit && size < limit) {
+                byteLimited = true;
+                break;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Whether the last fill stopped at its byte limit rather than at its row limit or the end of the rows.
+     */
+    public boolean byteLimited() {
+        return byteLimited;
+    }
+
+    /**
+     * Empties the batch, for row sources other than a result set that then {@link #append} to it.
+     */
+    public void clear() {
+        size = 0;
+        byteLimited = false;
+    }
+
+    /**
+     * Copies {@code count} rows of {@code other}, starting at row {@code from}, to the end of this
+     * batch. Both batches must have been created with binders for the same columns.
+     */
+    public void append(RowBatch other, int from, int count) {
+        for (int i = 1; i < binders.length; i++) {
+            ColumnVector source = other.vectors[i];
+            ColumnVector target = vectors[i];
+            if (source.longs != null) {
+                System.arraycopy(source.longs, from, target.longs, size, count);
+            } else if (source.doubles != null) {
+                System.arraycopy(source.doubles, from, target.doubles, size, count);
+            } else {
+                System.arraycopy(source.objects, from, target.objects, size, count);
+            }
+            System.arraycopy(source.nulls, from, target.nulls, size, count);
+        }
+        size += count;
+    }
+
+    /**
+     * Sets the row count after the vectors were filled directly.
+     */
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Binds every column of row {@code row} to consecutive parameters starting at {@code firstParam}.
+     */
+    public void bindRow(PreparedStatement pstmt, int row, int firstParam) throws SQLException {
+        for (int i = 1; i < binders.length; i++) {
+            binders[i].bind(pstmt, firstParam + i - 1, vectors[i], row);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Position of this batch in the order the reader produced it, starting at 0.
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * The key of the last row, when the split is read in key order; null otherwise.
+     */
+    public Object lastKey() {
+        return lastKey;
+    }
+
+    public void setPosition(long sequence, Object lastKey) {
+        this.sequence = sequence;
+        this.lastKey = lastKey;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int columnCount() {
+        return binders.length - 1;
+    }
+
+    public ColumnBinder binder(int column) {
+        return binders[column];
+    }
+
+    public ColumnVector vector(int column) {
+        return vectors[column];
+    }
+
+    public boolean isNull(int row, int column) {
+        return vectors[column].nulls[row];
+    }
+
+    /**
+     * Estimates the in-memory size of the rows in this batch from a sample of at most 16 rows.
+     */
+    public long estimateBytes() {
+        return estimate(true);
+    }
+
+    /**
+     * Like {@link #estimateBytes} but only counts the objects the rows refer to, not the slots of
+     * the preallocated vectors they sit in.
+     */
+    public long estimateObjectBytes() {
+        return estimate(false);
+    }
+
+    private long estimate(boolean slots) {
+        if (size == 0) {
+            return 0;
+        }
+        int step = Math.max(1, size / 16);
+        long sampled = 0;
+        int rows = 0;
+        for (int r = 0; r < size; r += step) {
+            sampled += estimateRowBytes(r, slots);
+            rows++;
+        }
+        return sampled * size / rows;
+    }
+
+    /**
+     * Bytes per row of capacity that the vectors of a batch with these binders preallocate: a null
+     * flag plus a long, a double or an object reference per column.
+     */
+    public static long slotBytes(ColumnBinder[] binders) {
+        return 9L * (binders.length - 1);
+    }
+
+    /**
+     * A first guess at the size of the objects one row refers to, from the column types alone, for
+     * sizing a memory reservation before any row has been read.
+     */
+    public static long typicalObjectBytes(ColumnBinder[] binders) {
+        long bytes = 0;
+        for (int i = 1; i < binders.length; i++) {
+            if (binders[i] instanceof ColumnBinder.LobBinder) {
+                bytes += 4096;
+            } else if (binders[i].storage() == ColumnBinder.Storage.OBJECT) {
+                bytes += 64;
+            }
+        }
+        return bytes;
+    }
+
+    private long estimateRowBytes(int row, boolean slots) {
+        long bytes = 0;
+        for (int i = 1; i < binders.length; i++) {
+            ColumnVector vector = vectors[i];
+            if (vector.objects == null || vector.nulls[row]) {
+                bytes += slots ? 8 : 0;
+                continue;
+            }
+            Object value = vector.objects[row];
+            if (value instanceof byte[]) {
+                bytes += 16 + ((byte[]) value).length;
+            } else if (value instanceof LobSpill.Value) {
+                // off the heap, but it still goes to the target with the batch
+                bytes += 48 + ((LobSpill.Value) value).length();
+            } else if (value instanceof String) {
+                bytes += 40 + 2L * ((String) value).length();
+            } else {
+                bytes += 32;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a value as an object, boxing primitives. Meant for code off the hot path.
+     */
+    public Object getValue(int row, int column) {
+        ColumnVector vector = vectors[column];
+        if (vector.nulls[row]) {
+            return null;
+        }
+        switch (binders[column].storage()) {
+            case LONG:
+                return vector.longs[row];
+            case DOUBLE:
+                return vector.doubles[row];
+            case BOOLEAN:
+                return vector.longs[row] != 0;
+            default:
+                return vector.objects[row];
+        }
+    }
+
+    /**
+     * Deletes the files holding this batch's large-object values.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int column : lobColumns) {
+            if (vectors[column].spill != null) {
+                vectors[column].spill.close();
+            }
+        }
+    }
+}
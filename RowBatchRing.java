@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed ring of preallocated {@link RowBatch}es between one reader and one or more writers.
+ * The reader blocks when every batch is waiting to be written, which is what bounds memory and
+ * applies backpressure to the source. A failure on either side wakes up everybody else.
+ *
+ * <p>With several targets each target has its own queue of filled batches and its own writers.
+ * Every published batch goes to all of them and returns to the reader once each target has
+ * recycled it, so a fast target runs ahead by at most the ring's capacity and the slowest one
+ * holds the reader back.
+ *
+ * <p>The memory of the ring counts against a {@link MemoryGovernor} shared with the other rings
+ * of the run. Before any batch is allocated the ring reserves its batches' vectors plus the
+ * estimated objects of a full batch each, waiting while the budget is short and settling for
+ * smaller batches, down to a quarter of the requested size. That is the only place a reader waits
+ * for memory: it holds nothing yet, while the rings that do hold memory never wait and so always
+ * drain. Each fill is then limited to the rows whose objects, at the size measured so far, fit in a
+ * batch's share; a batch that still turns out larger is counted above the budget until it is recycled.
+ */
+public class RowBatchRing implements AutoCloseable {
+
+    private static final RowBatch END = new RowBatch(0, new ColumnBinder[1]);
+
+    private final List<RowBatch> batches = new ArrayList<>();
+    private final MemoryGovernor memory;
+    private final long granted;
+    private final long objectShare;
+    private long objectRowBytes;
+    private final BlockingQueue<RowBatch> free;
+    private final List<BlockingQueue<RowBatch>> filled = new ArrayList<>();
+    private volatile Throwable failure;
+
+    /**
+     * @param batchSize the largest batch wanted; the batches may be smaller when memory is short
+     */
+    public RowBatchRing(int capacity, int batchSize, ColumnBinder[] binders, int targets, MemoryGovernor memory) throws SQLException {
+        this.memory = memory;
+        long slotBytes = RowBatch.slotBytes(binders);
+        objectRowBytes = RowBatch.typicalObjectBytes(binders);
+        long rowBytes = Math.max(1, slotBytes + objectRowBytes);
+        long wanted = (long) capacity * batchSize * rowBytes;
+        long minimum = Math.max((long) capacity * rowBytes, wanted / 4);
+        try {
+            granted = memory.reserve(wanted, minimum);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for memory", e);
+        }
+        int rows = MemoryGovernor.rowsFor(granted / capacity, rowBytes, batchSize);
+        objectShare = Math.max(0, granted / capacity - rows * slotBytes);
+
+        free = new ArrayBlockingQueue<>(capacity);
+        // never holds more than the ring's batches plus the end markers, so it needs no bound of its own
+        for (int i = 0; i < targets; i++) {
+            filled.add(new LinkedBlockingQueue<>());
+        }
+        for (int i = 0; i < capacity; i++) {
+            batches.add(new RowBatch(rows, binders));
+        }
+        free.addAll(batches);
+    }
+
+    /**
+     * Rows per batch, as granted when the ring was built.
+     */
+    public int batchCapacity() {
+        return batches.get(0).capacity();
+    }
+
+    /**
+     * Reader side: waits for an empty batch to fill.
+     */
+    public RowBatch acquire() throws SQLException {
+        return take(free);
+    }
+
+    /**
+     * Reader side: how many of {@code wanted} rows the next fill may read, so that their objects fit
+     * in a batch's share of the ring's memory at the size per row measured so far.
+     */
+    public int limit(int wanted) {
+        int limit = Math.min(wanted, batchCapacity());
+        return objectRowBytes == 0 ? limit : MemoryGovernor.rowsFor(objectShare, objectRowBytes, limit);
+    }
+
+    /**
+     * Reader side: once the batch is filled, counts whatever its objects take beyond its share
+     * against the budget until the batch is recycled, and learns their size per row.
+     */
+    public void settle(RowBatch batch) {
+        long objects = batch.estimateObjectBytes();
+        if (batch.size() > 0) {
+            objectRowBytes = objects / batch.size();
+        }
+        batch.reservedBytes = Math.max(0, objects - objectShare);
+        memory.force(batch.reservedBytes);
+    }
+
+    /**
+     * Reader side: hands a filled batch to the writers of every target.
+     */
+    public void publish(RowBatch batch) {
+        batch.pendingTargets.set(filled.size());
+        for (BlockingQueue<RowBatch> queue : filled) {
+            queue.add(batch);
+        }
+    }
+
+    /**
+     * Reader side: tells each of {@code writers} writers of every target that no more batches will follow.
+     */
+    public void finish(int writers) {
+        for (BlockingQueue<RowBatch> queue : filled) {
+            for (int i = 0; i < writers; i++) {
+                queue.add(END);
+            }
+        }
+    }
+
+    /**
+     * Writer side, for a writer of target {@code target}: waits for the next filled batch, or
+     * returns null once the reader has finished.
+     */
+    public RowBatch next(int target) throws SQLException {
+        RowBatch batch = take(filled.get(target));
+        return batch == END ? null : batch;
+    }
+
+    /**
+     * Returns a batch to the ring so the reader can fill it again, once every target is done with it.
+     * The reader recycles batches it did not publish.
+     */
+    public void recycle(RowBatch batch) {
+        if (batch.pendingTargets.decrementAndGet() <= 0) {
+            memory.release(batch.reservedBytes);
+            batch.reservedBytes = 0;
+            free.add(batch);
+        }
+    }
+
+    public void fail(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+    }
+
+    /**
+     * Returns the ring's memory, including what batches a failure left unwritten still hold, and
+     * releases what the batches keep off the heap. Only once the reader and every writer are done.
+     */
+    @Override
+    public void close() throws IOException {
+        for (RowBatch batch : batches) {
+            memory.release(batch.reservedBytes);
+            batch.reservedBytes = 0;
+            batch.close();
+        }
+        memory.release(granted);
+    }
+
+    private void checkFailure() throws SQLException {
+        if (failure != null) {
+            throw new SQLException("Transfer aborted: " + failure.getMessage(), failure);
+        }
+    }
+
+    private RowBatch take(BlockingQueue<RowBatch> queue) throws SQLException {
+        try {
+            while (true) {
+                checkFailure();
+                RowBatch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a row batch", e);
+        }
+    }
+}
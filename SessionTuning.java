@@ -0,0 +1,90 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relaxes durability and checking settings of one target session for the length of a bulk load and
+ * puts the previous values back when closed. PostgreSQL gets {@code synchronous_commit = off}, so a
+ * commit does not wait for the WAL flush; MySQL gets {@code unique_checks = 0} and
+ * {@code foreign_key_checks = 0}. Other targets are left alone.
+ */
+public class SessionTuning implements AutoCloseable {
+
+    private final Connection conn;
+    private final List<String> revertStatements = new ArrayList<>();
+
+    private SessionTuning(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Applies the settings for {@code dbType} to a connection that is in autocommit mode, so that a
+     * later rollback of the load transaction cannot undo them.
+     */
+    public static SessionTuning apply(Connection conn, String dbType) throws SQLException {
+        SessionTuning tuning = new SessionTuning(conn);
+        if (dbType == null) {
+            return tuning;
+        }
+        switch (dbType.toLowerCase()) {
+            case "postgres":
+            case "postgresql": {
+                String previous = queryString(conn, "SHOW synchronous_commit");
+                tuning.execute("SET synchronous_commit = off", "SET synchronous_commit = '" + previous + "'");
+                break;
+            }
+            case "mysql": {
+                String uniqueChecks = queryString(conn, "SELECT @@SESSION.unique_checks");
+                String foreignKeyChecks = queryString(conn, "SELECT @@SESSION.foreign_key_checks");
+                tuning.execute("SET unique_checks = 0, foreign_key_checks = 0",
+                        "SET unique_checks = " + uniqueChecks + ", foreign_key_checks = " + foreignKeyChecks);
+                break;
+            }
+            default:
+                break;
+        }
+        return tuning;
+    }
+
+    private void execute(String sql, String revertSQL) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+        revertStatements.add(revertSQL);
+    }
+
+    private static String queryString(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Restores the previous settings. If that fails the connection is closed, so the pool discards
+     * it instead of handing a relaxed session to the next lease.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (revertStatements.isEmpty()) {
+            return;
+        }
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : revertStatements) {
+                    stmt.execute(sql);
+                }
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Opens source queries so that rows are streamed from the server instead of being loaded into
+ * the heap all at once. Each driver needs a different incantation for that, keyed on {@code dbType}.
+ */
+public interface SourceReader {
+
+    int DEFAULT_FETCH_SIZE = 10000;
+
+    PreparedStatement prepare(Connection conn, String sql, int fetchSize) throws SQLException;
+
+    static SourceReader forType(String dbType) {
+        if (dbType != null) {
+            switch (dbType.toLowerCase()) {
+                case "postgres":
+                case "postgresql":
+                    return new PostgresSourceReader();
+                case "mysql":
+                    return new MySqlSourceReader();
+                default:
+                    break;
+            }
+        }
+        return new DefaultSourceReader();
+    }
+
+    /**
+     * pgjdbc only uses a server-side cursor when autocommit is off and a fetch size is set;
+     * otherwise it reads the whole result into memory. The pool restores autocommit on release.
+     */
+    class PostgresSourceReader implements SourceReader {
+        @Override
+        public PreparedStatement prepare(Connection conn, String sql, int fetchSize) throws SQLException {
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE);
+            return stmt;
+        }
+    }
+
+    /**
+     * Connector/J streams row by row when the fetch size is Integer.MIN_VALUE. With
+     * {@code useCursorFetch=true} on the URL it can fetch through a server cursor in chunks instead,
+     * so the configured fetch size is only honoured in that case.
+     */
+    class MySqlSourceReader implements SourceReader {
+        @Override
+        public PreparedStatement prepare(Connection conn, String sql, int fetchSize) throws SQLException {
+            PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            boolean cursorFetch = conn.getMetaData().getURL().contains("useCursorFetch=true");
+            stmt.setFetchSize(cursorFetch ? (fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE) : Integer.MIN_VALUE);
+            return stmt;
+        }
+    }
+
+    class DefaultSourceReader implements SourceReader {
+        @Override
+        public PreparedStatement prepare(Connection conn, String sql, int fetchSize) throws SQLException {
+            PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE);
+            return stmt;
+        }
+    }
+}
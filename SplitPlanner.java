@@ -0,0 +1,336 @@
+import java.math.BigInteger;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SplitPlanner {
+
+    /**
+     * A key range of one table. A split without a column covers the whole table.
+     * Bounds are inclusive on the lower side and exclusive on the upper side; a null bound is open.
+     * {@code after} narrows the range to keys strictly greater than a resume point. A watermark
+     * further restricts the rows to {@code watermarkLow < watermarkColumn <= watermarkHigh}.
+     */
+    public static class Split {
+        public final String tableName;
+        public final String column;
+        public final Object lower;
+        public final Object upper;
+        public final boolean nullsOnly;
+        public final Object after;
+        public final String watermarkColumn;
+        public final Object watermarkLow;
+        public final Object watermarkHigh;
+
+        Split(String tableName, String column, Object lower, Object upper, boolean nullsOnly, Object after,
+              String watermarkColumn, Object watermarkLow, Object watermarkHigh) {
+            this.tableName = tableName;
+            this.column = column;
+            this.lower = lower;
+            this.upper = upper;
+            this.nullsOnly = nullsOnly;
+            this.after = after;
+            this.watermarkColumn = watermarkColumn;
+            this.watermarkLow = watermarkLow;
+            this.watermarkHigh = watermarkHigh;
+        }
+
+        Split(String tableName, String column, Object lower, Object upper, boolean nullsOnly) {
+            this(tableName, column, lower, upper, nullsOnly, null, null, null, null);
+        }
+
+        public static Split whole(String tableName) {
+            return new Split(tableName, null, null, null, false);
+        }
+
+        public boolean isWholeTable() {
+            return column == null;
+        }
+
+        /**
+         * True when rows of this split can be read in key order, which is what makes a last-copied key meaningful.
+         */
+        public boolean isKeyed() {
+            return column != null && !nullsOnly;
+        }
+
+        /**
+         * Returns the same range restricted to keys greater than {@code key}.
+         */
+        public Split resumeAfter(Object key) {
+            return new Split(tableName, column, lower, upper, nullsOnly, key, watermarkColumn, watermarkLow, watermarkHigh);
+        }
+
+        /**
+         * Returns the same range restricted to rows whose watermark column is above {@code low}
+         * (when not null) and at most {@code high}.
+         */
+        public Split withWatermark(String watermarkColumn, Object low, Object high) {
+            return new Split(tableName, column, lower, upper, nullsOnly, after, watermarkColumn, low, high);
+        }
+
+        /**
+         * Identifies the range across runs; it does not change when the split is resumed.
+         */
+        public String id() {
+            return new Split(tableName, column, lower, upper, nullsOnly).toString();
+        }
+
+        public String whereClause() {
+            List<String> conditions = new ArrayList<>();
+            if (nullsOnly) {
+                conditions.add(column + " IS NULL");
+            } else if (column != null) {
+                if (lower != null) {
+                    conditions.add(column + " >= ?");
+                }
+                if (upper != null) {
+                    conditions.add(column + " < ?");
+                }
+                if (after != null) {
+                    conditions.add(column + " > ?");
+                }
+                if (conditions.isEmpty()) {
+                    conditions.add(column + " IS NOT NULL");
+                }
+            }
+            if (watermarkColumn != null) {
+                if (watermarkLow != null) {
+                    conditions.add(watermarkColumn + " > ?");
+                }
+                conditions.add(watermarkColumn + " <= ?");
+            }
+            return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        }
+
+        public String orderByClause() {
+            return isKeyed() ? " ORDER BY " + column : "";
+        }
+
+        /**
+         * Binds the parameters of {@link #whereClause()} starting at the given index
+         * and returns the next free parameter index.
+         */
+        public int bind(PreparedStatement pstmt, int index) throws SQLException {
+            if (isKeyed()) {
+                if (lower != null) {
+                    pstmt.setObject(index++, lower);
+                }
+                if (upper != null) {
+                    pstmt.setObject(index++, upper);
+                }
+                if (after != null) {
+                    pstmt.setObject(index++, after);
+                }
+            }
+            if (watermarkColumn != null) {
+                if (watermarkLow != null) {
+                    pstmt.setObject(index++, watermarkLow);
+                }
+                pstmt.setObject(index++, watermarkHigh);
+            }
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            if (column == null) {
+                return tableName;
+            }
+            if (nullsOnly) {
+                return tableName + "[" + column + " IS NULL]";
+            }
+            String range = tableName + "[" + column + " " + (lower == null ? "(-inf" : "[" + lower) + ", " + (upper == null ? "+inf)" : upper + ")") + "]";
+            return after == null ? range : range + " after " + after;
+        }
+    }
+
+    /**
+     * Cuts a table into at most {@code splitCount} key ranges on its primary key, or on the leading
+     * column of another index when there is no single-column primary key. Only integer and temporal
+     * columns are split; anything else falls back to a single whole-table split. With {@code keyed}
+     * a single split is still planned on the key column, so it can be read in key order.
+     * With {@code unique} only a single-column primary key or unique index qualifies, as checkpoints
+     * need: they resume after the last committed key, which skips the uncommitted rows sharing that
+     * key on a non-unique column.
+     */
+    public static List<Split> plan(Connection conn, String tableName, int splitCount, boolean keyed, boolean unique) throws SQLException {
+        if (splitCount <= 1 && !keyed) {
+            return Collections.singletonList(Split.whole(tableName));
+        }
+
+        SplitColumn splitColumn = findSplitColumn(conn, tableName, unique);
+        if (splitColumn == null) {
+            System.out.println("No " + (unique ? "unique " : "") + "numeric or temporal key found on " + tableName + ", reading it as a single range"
+                    + (unique ? "; on resume it is copied again as a whole." : "."));
+            return Collections.singletonList(Split.whole(tableName));
+        }
+
+        String rangeSQL = "SELECT MIN(" + splitColumn.name + "), MAX(" + splitColumn.name + ") FROM " + tableName;
+        long min;
+        long max;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(rangeSQL)) {
+            if (!rs.next() || rs.getObject(1) == null) {
+                return Collections.singletonList(Split.whole(tableName));
+            }
+            if (splitColumn.temporal) {
+                min = rs.getTimestamp(1).getTime();
+                max = rs.getTimestamp(2).getTime();
+            } else {
+                // NUMERIC keys and BIGINT UNSIGNED can hold more than a long, which getLong would overflow or refuse
+                try {
+                    min = rs.getBigDecimal(1).longValueExact();
+                    max = rs.getBigDecimal(2).longValueExact();
+                } catch (ArithmeticException e) {
+                    System.out.println("Keys of " + tableName + " on " + splitColumn.name + " exceed the 64-bit range, reading it as a single range"
+                            + (unique ? "; on resume it is copied again as a whole." : "."));
+                    return Collections.singletonList(Split.whole(tableName));
+                }
+            }
+        }
+
+        List<Long> boundaries = boundaries(min, max, splitCount);
+        List<Split> splits = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            Object lower = i == 0 ? null : splitColumn.value(boundaries.get(i - 1));
+            Object upper = i == boundaries.size() ? null : splitColumn.value(boundaries.get(i));
+            splits.add(new Split(tableName, splitColumn.name, lower, upper, false));
+        }
+        if (splitColumn.nullable) {
+            splits.add(new Split(tableName, splitColumn.name, null, null, true));
+        }
+        return splits;
+    }
+
+    /**
+     * Returns the inner boundaries that cut [min, max] into {@code splitCount} ranges of equal width.
+     */
+    static List<Long> boundaries(long min, long max, int splitCount) {
+        BigInteger low = BigInteger.valueOf(min);
+        BigInteger width = BigInteger.valueOf(max).subtract(low).add(BigInteger.ONE);
+        BigInteger count = BigInteger.valueOf(splitCount);
+
+        List<Long> boundaries = new ArrayList<>();
+        long previous = min;
+        for (int i = 1; i < splitCount; i++) {
+            long boundary = low.add(width.multiply(BigInteger.valueOf(i)).divide(count)).longValue();
+            if (boundary > previous) {
+                boundaries.add(boundary);
+                previous = boundary;
+            }
+        }
+        return boundaries;
+    }
+
+    private static class SplitColumn {
+        String name;
+        boolean temporal;
+        boolean nullable;
+
+        Object value(long boundary) {
+            return temporal ? new Timestamp(boundary) : (Object) boundary;
+        }
+    }
+
+    private static SplitColumn findSplitColumn(Connection conn, String tableName, boolean unique) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        String[] parts = splitQualifiedName(conn, tableName);
+
+        List<String> candidates = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        try (ResultSet rs = metaData.getPrimaryKeys(null, parts[0], parts[1])) {
+            while (rs.next()) {
+                primaryKey.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        if (primaryKey.size() == 1) {
+            candidates.add(primaryKey.get(0));
+        }
+        // leading column of each index, and whether the index is unique on that column alone
+        Map<String, String> leadingColumns = new LinkedHashMap<>();
+        Map<String, Integer> indexColumns = new HashMap<>();
+        Set<String> uniqueIndexes = new HashSet<>();
+        try (ResultSet rs = metaData.getIndexInfo(null, parts[0], parts[1], unique, true)) {
+            while (rs.next()) {
+                String index = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (index == null) {
+                    continue;
+                }
+                indexColumns.merge(index, 1, Integer::sum);
+                if (!rs.getBoolean("NON_UNIQUE")) {
+                    uniqueIndexes.add(index);
+                }
+                if (rs.getShort("ORDINAL_POSITION") == 1 && column != null) {
+                    leadingColumns.put(index, column);
+                }
+            }
+        }
+        for (Map.Entry<String, String> index : leadingColumns.entrySet()) {
+            boolean uniqueColumn = uniqueIndexes.contains(index.getKey()) && indexColumns.get(index.getKey()) == 1;
+            if ((uniqueColumn || !unique) && !candidates.contains(index.getValue())) {
+                candidates.add(index.getValue());
+            }
+        }
+
+        for (String candidate : candidates) {
+            try (ResultSet rs = metaData.getColumns(null, parts[0], parts[1], candidate)) {
+                if (!rs.next()) {
+                    continue;
+                }
+                SplitColumn column = new SplitColumn();
+                column.name = candidate;
+                column.nullable = rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls;
+                switch (rs.getInt("DATA_TYPE")) {
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                        return column;
+                    case Types.NUMERIC:
+                    case Types.DECIMAL:
+                        if (rs.getInt("DECIMAL_DIGITS") == 0) {
+                            return column;
+                        }
+                        break;
+                    case Types.DATE:
+                    case Types.TIMESTAMP:
+                        column.temporal = true;
+                        return column;
+                    default:
+                        break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits "schema.table" into its parts and folds them to the case the driver stores unquoted identifiers in.
+     */
+    static String[] splitQualifiedName(Connection conn, String tableName) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        String schema = null;
+        String table = tableName;
+        int dot = tableName.indexOf('.');
+        if (dot >= 0) {
+            schema = tableName.substring(0, dot);
+            table = tableName.substring(dot + 1);
+        }
+        if (metaData.storesLowerCaseIdentifiers()) {
+            schema = schema == null ? null : schema.toLowerCase();
+            table = table.toLowerCase();
+        } else if (metaData.storesUpperCaseIdentifiers()) {
+            schema = schema == null ? null : schema.toUpperCase();
+            table = table.toUpperCase();
+        }
+        return new String[]{schema, table};
+    }
+}
@@ -0,0 +1,535 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One split of a table staged on local disk by an extract run, to be loaded into a target by one or
+ * more later runs without going back to the source.
+ *
+ * <p>A file starts with the magic {@code DTSTAGE2} and the schema: the column count, then the name,
+ * JDBC type and type name of every column. Rows follow in chunks of one batch each. A chunk is its
+ * row count and its length in bytes, then one Deflate-compressed block per column holding a null
+ * bitmap and the non-null values: eight bytes each for integer, boolean and floating-point columns,
+ * a type tag and the value for everything else. Types without a tag of their own travel as their
+ * string form. Dates and times are kept as the fields they show, not as an instant, so a file loads
+ * the same whatever the time zone of the JVM that wrote it. A chunk of 0 rows ends the file.
+ *
+ * <p>Files are written under a temporary name and renamed once complete, so a load never sees a
+ * half-written file. Readers map the file a window at a time and inflate straight from the mapping.
+ */
+public class StagingFile {
+
+    static final String SUFFIX = ".stage";
+
+    private static final byte[] MAGIC = "DTSTAGE2".getBytes(StandardCharsets.US_ASCII);
+    private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+
+    private static final byte STRING = 'S';
+    private static final byte BYTES = 'B';
+    private static final byte DECIMAL = 'N';
+    private static final byte DATE = 'd';
+    private static final byte TIME = 't';
+    private static final byte TIMESTAMP = 'T';
+
+    /**
+     * The file holding split {@code index} of a table.
+     */
+    public static File fileFor(File dir, String table, int index) {
+        return new File(dir, table + "." + index + SUFFIX);
+    }
+
+    /**
+     * Returns the complete staged files of a table, in split order.
+     */
+    public static List<File> list(File dir, String table) {
+        List<File> files = new ArrayList<>();
+        File[] candidates = dir.listFiles();
+        if (candidates == null) {
+            return files;
+        }
+        for (File file : candidates) {
+            if (splitIndex(file, table) >= 0) {
+                files.add(file);
+            }
+        }
+        files.sort((a, b) -> Integer.compare(splitIndex(a, table), splitIndex(b, table)));
+        return files;
+    }
+
+    private static int splitIndex(File file, String table) {
+        String name = file.getName();
+        if (!name.startsWith(table + ".") || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        String index = name.substring(table.length() + 1, name.length() - SUFFIX.length());
+        return !index.isEmpty() && index.chars().allMatch(Character::isDigit) ? Integer.parseInt(index) : -1;
+    }
+
+    public static Writer create(File file, TableColumns columns) throws IOException {
+        return new Writer(file, columns);
+    }
+
+    public static Reader open(File file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Appends batches to a new staging file. {@link #finish()} publishes the file; closing without
+     * it discards what was written.
+     */
+    public static class Writer implements AutoCloseable {
+        private final File file;
+        private final File partial;
+        private final DataOutputStream out;
+        private final TableColumns columns;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final Buffer raw = new Buffer();
+        private final Buffer[] blocks;
+        private final int[] rawLengths;
+        private long bytes;
+        private boolean finished;
+
+        private Writer(File file, TableColumns columns) throws IOException {
+            this.file = file;
+            this.partial = new File(file.getPath() + ".partial");
+            this.columns = columns;
+            this.blocks = new Buffer[columns.count() + 1];
+            this.rawLengths = new int[columns.count() + 1];
+            for (int i = 1; i <= columns.count(); i++) {
+                blocks[i] = new Buffer();
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial), 256 * 1024));
+
+            Buffer header = new Buffer();
+            header.putInt(columns.count());
+            for (int i = 1; i <= columns.count(); i++) {
+                header.putString(columns.names[i]);
+                header.putInt(columns.types[i]);
+                header.putString(columns.typeNames[i]);
+            }
+            out.write(MAGIC);
+            out.writeInt(header.length);
+            out.write(header.bytes, 0, header.length);
+            bytes = MAGIC.length + 4 + header.length;
+        }
+
+        /**
+         * Writes the rows of the batch as one chunk.
+         */
+        public void write(RowBatch batch) throws IOException, SQLException {
+            if (batch.size() == 0) {
+                return;
+            }
+            long chunkBytes = 0;
+            for (int column = 1; column <= columns.count(); column++) {
+                encode(batch, column);
+                rawLengths[column] = raw.length;
+                compress(blocks[column]);
+                chunkBytes += 8 + blocks[column].length;
+            }
+            out.writeInt(batch.size());
+            out.writeLong(chunkBytes);
+            for (int column = 1; column <= columns.count(); column++) {
+                out.writeInt(rawLengths[column]);
+                out.writeInt(blocks[column].length);
+                out.write(blocks[column].bytes, 0, blocks[column].length);
+            }
+            bytes += 12 + chunkBytes;
+        }
+
+        /**
+         * Bytes written so far.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        private void encode(RowBatch batch, int column) throws SQLException, IOException {
+            RowBatch.ColumnVector vector = batch.vector(column);
+            int rows = batch.size();
+            int bitmapBytes = (rows + 7) / 8;
+            raw.length = 0;
+            raw.ensure(bitmapBytes);
+            Arrays.fill(raw.bytes, 0, bitmapBytes, (byte) 0);
+            for (int r = 0; r < rows; r++) {
+                if (vector.nulls[r]) {
+                    raw.bytes[r >> 3] |= (byte) (1 << (r & 7));
+                }
+            }
+            raw.length = bitmapBytes;
+
+            switch (batch.binder(column).storage()) {
+                case LONG:
+                case BOOLEAN:
+                    for (int r = 0; r < rows; r++) {
+                        if (!vector.nulls[r]) {
+                            raw.putLong(vector.longs[r]);
+                        }
+                    }
+                    break;
+                case DOUBLE:
+                    for (int r = 0; r < rows; r++) {
+                        if (!vector.nulls[r]) {
+                            raw.putLong(Double.doubleToRawLongBits(vector.doubles[r]));
+                        }
+                    }
+                    break;
+                default:
+                    for (int r = 0; r < rows; r++) {
+                        if (!vector.nulls[r]) {
+                            putValue(vector.objects[r]);
+                        }
+                    }
+                    break;
+            }
+        }
+
+        private void putValue(Object value) throws SQLException, IOException {
+            if (value instanceof LobSpill.Value) {
+                // chunks are compressed in memory, so staged LOBs are bounded by --batch-bytes instead
+                LobSpill.Value lob = (LobSpill.Value) value;
+                value = lob.isText() ? lob.text() : lob.bytes();
+            } else if (value instanceof Blob) {
+                Blob blob = (Blob) value;
+                value = blob.getBytes(1, (int) blob.length());
+            } else if (value instanceof Clob) {
+                Clob clob = (Clob) value;
+                value = clob.getSubString(1, (int) clob.length());
+            }
+            if (value instanceof byte[]) {
+                raw.put(BYTES);
+                raw.putBytes((byte[]) value);
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) value;
+                raw.put(DECIMAL);
+                raw.putInt(decimal.scale());
+                raw.putBytes(decimal.unscaledValue().toByteArray());
+            } else if (value instanceof Timestamp) {
+                Timestamp timestamp = (Timestamp) value;
+                raw.put(TIMESTAMP);
+                raw.putLong(timestamp.toLocalDateTime().toEpochSecond(ZoneOffset.UTC));
+                raw.putInt(timestamp.getNanos());
+            } else if (value instanceof Date) {
+                raw.put(DATE);
+                raw.putLong(((Date) value).toLocalDate().toEpochDay());
+            } else if (value instanceof Time) {
+                // toLocalTime drops the milliseconds a Time may carry
+                Time time = (Time) value;
+                raw.put(TIME);
+                raw.putLong(time.toLocalTime().toNanoOfDay() + Math.floorMod(time.getTime(), 1000L) * 1_000_000L);
+            } else {
+                raw.put(STRING);
+                raw.putString(value.toString());
+            }
+        }
+
+        private void compress(Buffer block) {
+            deflater.reset();
+            deflater.setInput(raw.bytes, 0, raw.length);
+            deflater.finish();
+            block.length = 0;
+            block.ensure(raw.length / 2 + 64);
+            while (!deflater.finished()) {
+                if (block.length == block.bytes.length) {
+                    block.ensure(block.bytes.length);
+                }
+                block.length += deflater.deflate(block.bytes, block.length, block.bytes.length - block.length);
+            }
+        }
+
+        /**
+         * Ends the file and gives it its final name.
+         */
+        public void finish() throws IOException {
+            out.writeInt(0);
+            out.close();
+            bytes += 4;
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            if (!finished) {
+                out.close();
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads a staging file back into batches.
+     */
+    public static class Reader implements AutoCloseable {
+        private final File file;
+        private final FileChannel channel;
+        private final long size;
+        private final TableColumns columns;
+        private final ColumnBinder[] binders;
+        private final Inflater inflater = new Inflater();
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private byte[] raw = new byte[0];
+        private RowBatch chunk;
+        private int chunkRow;
+        private boolean ended;
+
+        private Reader(File file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.size = channel.size();
+            try {
+                ByteBuffer start = map(MAGIC.length + 4);
+                byte[] magic = new byte[MAGIC.length];
+                start.get(magic);
+                if (!Arrays.equals(magic, MAGIC)) {
+                    throw new IOException(file + " is not a staging file");
+                }
+                ByteBuffer header = map(start.getInt());
+                columns = new TableColumns(header.getInt());
+                for (int i = 1; i <= columns.count(); i++) {
+                    columns.names[i] = getString(header);
+                    columns.types[i] = header.getInt();
+                    columns.typeNames[i] = getString(header);
+                }
+                binders = ColumnBinder.forColumns(columns);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * The columns the rows were extracted with.
+         */
+        public TableColumns columns() {
+            return columns;
+        }
+
+        /**
+         * Replaces the contents of the batch with the next rows of the file, at most {@code limit}
+         * of them, and returns how many were read. Fewer rows than the limit means the file is done.
+         * The batch must have been created for {@link #columns()}.
+         */
+        public int fill(RowBatch batch, int limit) throws IOException {
+            limit = Math.min(limit, batch.capacity());
+            batch.clear();
+            while (batch.size() < limit) {
+                if ((chunk == null || chunkRow == chunk.size()) && !nextChunk()) {
+                    break;
+                }
+                int count = Math.min(limit - batch.size(), chunk.size() - chunkRow);
+                batch.append(chunk, chunkRow, count);
+                chunkRow += count;
+            }
+            return batch.size();
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (ended) {
+                return false;
+            }
+            int rows = map(4).getInt();
+            if (rows == 0) {
+                ended = true;
+                return false;
+            }
+            long chunkBytes = map(8).getLong();
+            if (chunkBytes > Integer.MAX_VALUE) {
+                throw new IOException(file + " has a chunk of " + chunkBytes + " bytes, more than can be mapped at once");
+            }
+            ByteBuffer block = map(chunkBytes);
+            if (chunk == null || chunk.capacity() < rows) {
+                chunk = new RowBatch(rows, binders);
+            }
+            for (int column = 1; column <= columns.count(); column++) {
+                int rawLength = block.getInt();
+                int compressedLength = block.getInt();
+                ByteBuffer compressed = block.slice();
+                compressed.limit(compressedLength);
+                block.position(block.position() + compressedLength);
+                inflate(compressed, rawLength);
+                decode(ByteBuffer.wrap(raw, 0, rawLength), chunk.vector(column), binders[column].storage(), rows);
+            }
+            chunk.setSize(rows);
+            chunkRow = 0;
+            return true;
+        }
+
+        private void inflate(ByteBuffer compressed, int rawLength) throws IOException {
+            if (raw.length < rawLength) {
+                raw = new byte[Math.max(rawLength, raw.length * 2)];
+            }
+            inflater.reset();
+            inflater.setInput(compressed);
+            int inflated = 0;
+            try {
+                while (inflated < rawLength) {
+                    int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(file + " is corrupt", e);
+            }
+            if (inflated != rawLength) {
+                throw new IOException(file + " is corrupt: a column block is short by " + (rawLength - inflated) + " bytes");
+            }
+        }
+
+        private static void decode(ByteBuffer in, RowBatch.ColumnVector vector, ColumnBinder.Storage storage, int rows) throws IOException {
+            int bitmapBytes = (rows + 7) / 8;
+            for (int r = 0; r < rows; r++) {
+                vector.nulls[r] = (in.get(r >> 3) & (1 << (r & 7))) != 0;
+            }
+            in.position(bitmapBytes);
+            for (int r = 0; r < rows; r++) {
+                if (vector.nulls[r]) {
+                    if (vector.objects != null) {
+                        vector.objects[r] = null;
+                    }
+                    continue;
+                }
+                switch (storage) {
+                    case LONG:
+                    case BOOLEAN:
+                        vector.longs[r] = in.getLong();
+                        break;
+                    case DOUBLE:
+                        vector.doubles[r] = Double.longBitsToDouble(in.getLong());
+                        break;
+                    default:
+                        vector.objects[r] = getValue(in);
+                        break;
+                }
+            }
+        }
+
+        private static Object getValue(ByteBuffer in) throws IOException {
+            byte tag = in.get();
+            switch (tag) {
+                case STRING:
+                    return getString(in);
+                case BYTES:
+                    return getBytes(in);
+                case DECIMAL: {
+                    int scale = in.getInt();
+                    return new BigDecimal(new BigInteger(getBytes(in)), scale);
+                }
+                case DATE:
+                    return Date.valueOf(LocalDate.ofEpochDay(in.getLong()));
+                case TIME: {
+                    long nanoOfDay = in.getLong();
+                    Time time = Time.valueOf(LocalTime.ofNanoOfDay(nanoOfDay));
+                    return new Time(time.getTime() + nanoOfDay % 1_000_000_000L / 1_000_000L);
+                }
+                case TIMESTAMP: {
+                    LocalDateTime local = LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+                    return Timestamp.valueOf(local.withNano(in.getInt()));
+                }
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        private static byte[] getBytes(ByteBuffer in) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            return bytes;
+        }
+
+        private static String getString(ByteBuffer in) {
+            return new String(getBytes(in), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns the next {@code length} bytes of the file, mapping a new window when they lie
+         * outside the current one.
+         */
+        private ByteBuffer map(long length) throws IOException {
+            if (length > size - position) {
+                throw new EOFException(file + " is truncated");
+            }
+            if (window == null || position + length > windowStart + window.capacity()) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, Math.max(WINDOW_BYTES, length)));
+                windowStart = position;
+            }
+            ByteBuffer view = window.duplicate();
+            view.position((int) (position - windowStart));
+            view.limit((int) (position - windowStart + length));
+            position += length;
+            return view.slice();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * A growable byte array with big-endian writes, reused from chunk to chunk.
+     */
+    private static class Buffer {
+        byte[] bytes = new byte[4096];
+        int length;
+
+        void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + more, bytes.length * 2));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            bytes[length++] = (byte) (v >>> 24);
+            bytes[length++] = (byte) (v >>> 16);
+            bytes[length++] = (byte) (v >>> 8);
+            bytes[length++] = (byte) v;
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putBytes(byte[] b) {
+            putInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void putString(String s) {
+            putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * A snapshot of the column names and JDBC types of a source query, safe to hand to writer threads
+ * after the source result set has moved on. Arrays are indexed from 1 like JDBC columns.
+ */
+public class TableColumns {
+
+    public final String[] names;
+    public final int[] types;
+    public final String[] typeNames;
+
+    TableColumns(int columnCount) {
+        names = new String[columnCount + 1];
+        types = new int[columnCount + 1];
+        typeNames = new String[columnCount + 1];
+    }
+
+    public static TableColumns of(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        TableColumns columns = new TableColumns(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+            columns.names[i] = metaData.getColumnName(i);
+            columns.types[i] = metaData.getColumnType(i);
+            columns.typeNames[i] = metaData.getColumnTypeName(i);
+        }
+        return columns;
+    }
+
+    public int count() {
+        return names.length - 1;
+    }
+
+    /**
+     * Returns the JDBC index of the named column, ignoring case, or -1.
+     */
+    public int indexOf(String name) {
+        for (int i = 1; i <= count(); i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Column names joined with commas, for column lists in generated SQL.
+     */
+    public String columnList() {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 1; i <= count(); i++) {
+            columns.append(names[i]);
+            if (i < count()) {
+                columns.append(",");
+            }
+        }
+        return columns.toString();
+    }
+}
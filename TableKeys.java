@@ -0,0 +1,28 @@
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Looks up key columns of a table through {@link DatabaseMetaData}.
+ */
+public class TableKeys {
+
+    /**
+     * Returns the primary key columns of the table in key order, or an empty list if it has none.
+     */
+    public static List<String> primaryKey(Connection conn, String tableName) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(conn, tableName);
+        Map<Short, String> columns = new TreeMap<>();
+        try (ResultSet rs = conn.getMetaData().getPrimaryKeys(null, parts[0], parts[1])) {
+            while (rs.next()) {
+                columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        }
+        return new ArrayList<>(columns.values());
+    }
+}
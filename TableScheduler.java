@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the key ranges of a set of tables on a bounded worker pool. Waiting ranges are started
+ * largest first, and a table only becomes runnable once every table it references through a
+ * foreign key on the target has been copied completely, so parents are always loaded before their
+ * children while unrelated tables keep every worker busy. If a table fails, the tables that depend
+ * on it are skipped and reported as failed too.
+ */
+public class TableScheduler {
+
+    public interface SplitTask {
+        void run(SplitPlanner.Split split) throws SQLException, IOException;
+    }
+
+    private final int workers;
+    private final ThreadFactory threadFactory;
+    private final SplitTask task;
+    private final Map<String, Long> rowsPerSplit = new HashMap<>();
+    private final Map<String, List<SplitPlanner.Split>> splits = new LinkedHashMap<>();
+    private final Map<String, Integer> remainingSplits = new HashMap<>();
+    private final Map<String, Set<String>> waitingOn = new HashMap<>();
+    private final Map<String, Set<String>> children = new HashMap<>();
+    private final Set<String> failedTables = new HashSet<>();
+    private final CountDownLatch finished;
+    private ThreadPoolExecutor executor;
+    private long submitted;
+
+    /**
+     * @param threadFactory creates the worker threads, see {@link WorkerThreads}
+     * @param estimatedRows row estimate per table; a table's splits share it evenly
+     * @param parents       for each table, the tables it references
+     */
+    public TableScheduler(int workers, ThreadFactory threadFactory, List<SplitPlanner.Split> allSplits, Map<String, Long> estimatedRows,
+                          Map<String, Set<String>> parents, SplitTask task) {
+        this.workers = Math.max(1, workers);
+        this.threadFactory = threadFactory;
+        this.task = task;
+        for (SplitPlanner.Split split : allSplits) {
+            splits.computeIfAbsent(split.tableName, table -> new ArrayList<>()).add(split);
+        }
+        for (Map.Entry<String, List<SplitPlanner.Split>> table : splits.entrySet()) {
+            remainingSplits.put(table.getKey(), table.getValue().size());
+            rowsPerSplit.put(table.getKey(), estimatedRows.getOrDefault(table.getKey(), TableStats.UNKNOWN) / table.getValue().size());
+            Set<String> tableParents = new HashSet<>(parents.getOrDefault(table.getKey(), Collections.emptySet()));
+            tableParents.retainAll(splits.keySet());
+            tableParents.remove(table.getKey());
+            waitingOn.put(table.getKey(), tableParents);
+        }
+        breakCycles();
+        for (Map.Entry<String, Set<String>> table : waitingOn.entrySet()) {
+            for (String parent : table.getValue()) {
+                children.computeIfAbsent(parent, p -> new LinkedHashSet<>()).add(table.getKey());
+            }
+        }
+        this.finished = new CountDownLatch(allSplits.size());
+    }
+
+    /**
+     * Foreign keys that loop back on themselves cannot be ordered; the tables on such a cycle are
+     * released without waiting on each other.
+     */
+    private void breakCycles() {
+        Map<String, Integer> inDegree = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> table : waitingOn.entrySet()) {
+            inDegree.put(table.getKey(), table.getValue().size());
+            for (String parent : table.getValue()) {
+                dependents.computeIfAbsent(parent, p -> new ArrayList<>()).add(table.getKey());
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        inDegree.forEach((table, degree) -> {
+            if (degree == 0) {
+                ready.add(table);
+            }
+        });
+        while (!ready.isEmpty()) {
+            for (String child : dependents.getOrDefault(ready.poll(), Collections.emptyList())) {
+                if (inDegree.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+
+        Set<String> blocked = new TreeSet<>();
+        inDegree.forEach((table, degree) -> {
+            if (degree > 0) {
+                blocked.add(table);
+            }
+        });
+        if (!blocked.isEmpty()) {
+            System.out.println("Foreign keys among " + blocked + " form a cycle; these tables are loaded without ordering between them.");
+            for (String table : blocked) {
+                waitingOn.get(table).removeAll(blocked);
+            }
+        }
+    }
+
+    /**
+     * Reads the foreign keys of the given tables from the target's metadata and returns, for each
+     * table, the tables it references among the given ones.
+     */
+    public static Map<String, Set<String>> readParents(Connection conn, String[] tables) throws SQLException {
+        Map<String, String> byStoredName = new HashMap<>();
+        for (String table : tables) {
+            byStoredName.put(storedName(SplitPlanner.splitQualifiedName(conn, table)), table);
+        }
+
+        Map<String, Set<String>> parents = new HashMap<>();
+        for (String table : tables) {
+            String[] parts = SplitPlanner.splitQualifiedName(conn, table);
+            try (ResultSet rs = conn.getMetaData().getImportedKeys(null, parts[0], parts[1])) {
+                while (rs.next()) {
+                    String schema = null;
+                    if (parts[0] != null) {
+                        schema = rs.getString("PKTABLE_SCHEM") != null ? rs.getString("PKTABLE_SCHEM") : rs.getString("PKTABLE_CAT");
+                    }
+                    String parent = byStoredName.get(storedName(new String[]{schema, rs.getString("PKTABLE_NAME")}));
+                    if (parent != null && !parent.equals(table)) {
+                        parents.computeIfAbsent(table, t -> new HashSet<>()).add(parent);
+                    }
+                }
+            }
+        }
+        return parents;
+    }
+
+    private static String storedName(String[] parts) {
+        return parts[0] == null ? parts[1] : parts[0] + "." + parts[1];
+    }
+
+    /**
+     * Runs every split and returns the tables that failed or were skipped because a table they
+     * reference failed.
+     */
+    public Set<String> run() throws InterruptedException {
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+        try {
+            // The first jobs go straight to idle workers, so the initial tables are released in size order
+            synchronized (this) {
+                List<String> roots = new ArrayList<>();
+                for (String table : splits.keySet()) {
+                    if (waitingOn.get(table).isEmpty()) {
+                        roots.add(table);
+                    }
+                }
+                roots.sort(Comparator.comparingLong((String table) -> rowsPerSplit.get(table)).reversed());
+                for (String table : roots) {
+                    release(table);
+                }
+            }
+            finished.await();
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (this) {
+            return new HashSet<>(failedTables);
+        }
+    }
+
+    private void release(String table) {
+        for (SplitPlanner.Split split : splits.get(table)) {
+            executor.execute(new Job(split, rowsPerSplit.get(table), submitted++));
+        }
+    }
+
+    private synchronized void splitDone(SplitPlanner.Split split, boolean failed) {
+        String table = split.tableName;
+        if (failed) {
+            failedTables.add(table);
+        }
+        finished.countDown();
+        if (remainingSplits.merge(table, -1, Integer::sum) == 0) {
+            tableDone(table);
+        }
+    }
+
+    private void tableDone(String table) {
+        for (String child : children.getOrDefault(table, Collections.emptySet())) {
+            Set<String> pending = waitingOn.get(child);
+            pending.remove(table);
+            if (failedTables.contains(table) && !failedTables.contains(child)) {
+                System.out.println("Skipping " + child + " because " + table + ", which it references, failed.");
+                failedTables.add(child);
+            }
+            if (pending.isEmpty()) {
+                if (failedTables.contains(child)) {
+                    for (int i = 0; i < splits.get(child).size(); i++) {
+                        finished.countDown();
+                    }
+                    remainingSplits.put(child, 0);
+                    tableDone(child);
+                } else {
+                    release(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued split; the pool's priority queue hands out the largest first and keeps submission
+     * order among equals.
+     */
+    private class Job implements Runnable, Comparable<Job> {
+        private final SplitPlanner.Split split;
+        private final long estimatedRows;
+        private final long order;
+
+        Job(SplitPlanner.Split split, long estimatedRows, long order) {
+            this.split = split;
+            this.estimatedRows = estimatedRows;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            boolean failed = true;
+            try {
+                task.run(split);
+                failed = false;
+            } catch (SQLException | IOException | RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                splitDone(split, failed);
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int bySize = Long.compare(other.estimatedRows, estimatedRows);
+            return bySize != 0 ? bySize : Long.compare(order, other.order);
+        }
+    }
+}
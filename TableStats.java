@@ -0,0 +1,53 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads a table's row count estimate from the catalog statistics, which costs a lookup instead of
+ * a scan. The numbers are only as fresh as the last ANALYZE, which is good enough for ordering work.
+ */
+public class TableStats {
+
+    public static final long UNKNOWN = -1;
+
+    /**
+     * Returns the estimated number of rows in {@code tableName}, or {@link #UNKNOWN} when the
+     * database keeps no estimate or the table was never analyzed.
+     */
+    public static long estimateRows(Connection conn, String dbType, String tableName) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(conn, tableName);
+        if (dbType == null) {
+            return UNKNOWN;
+        }
+        String sql;
+        switch (dbType.toLowerCase()) {
+            case "postgres":
+            case "postgresql":
+                sql = "SELECT c.reltuples::bigint FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace"
+                        + " WHERE n.nspname = COALESCE(?, current_schema()) AND c.relname = ?";
+                break;
+            case "mysql":
+                sql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = COALESCE(?, DATABASE()) AND TABLE_NAME = ?";
+                break;
+            case "h2":
+                sql = "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = COALESCE(?, SCHEMA()) AND TABLE_NAME = ?";
+                break;
+            default:
+                return UNKNOWN;
+        }
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, parts[0]);
+            pstmt.setString(2, parts[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return UNKNOWN;
+                }
+                long rows = rs.getLong(1);
+                // PostgreSQL reports -1 for a table that was never vacuumed or analyzed
+                return rs.wasNull() || rows < 0 ? UNKNOWN : rows;
+            }
+        }
+    }
+}
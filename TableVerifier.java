@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that target tables hold the same rows as their source tables without a row-by-row diff.
+ * Each table is cut into key ranges; for every range both sides are read in parallel and reduced to
+ * a row count and an order-independent hash (the sum of per-row hashes). Ranges that disagree are
+ * cut again and re-checked until they are down to a few thousand rows or cannot be cut further,
+ * and only those ranges are reported.
+ *
+ * <p>Values are hashed after they have gone through the same {@link ColumnBinder}s the transfer
+ * uses, so an INT column on one side and a BIGINT on the other, or a PostgreSQL boolean and a
+ * MySQL TINYINT(1), hash the same. Both sides are read as {@link TypeMapping#normalize} reads
+ * them for the transfer, so a UUID or JSON column hashes its text form on either side. The source
+ * side goes through the target's {@link TypeMapping.Plan}, so a converted value hashes as it was
+ * written, such as a PostgreSQL array as the JSON array a MySQL target holds.
+ */
+public class TableVerifier {
+
+    private static final int DRILL_PARTS = 16;
+    private static final long LEAF_ROWS = 5000;
+    private static final long BATCH_BYTES = 64L * 1024 * 1024;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Row count and hash of one range on one side.
+     */
+    static class Digest {
+        long rows;
+        long hash;
+
+        boolean matches(Digest other) {
+            return rows == other.rows && hash == other.hash;
+        }
+    }
+
+    /**
+     * A range whose digests differ.
+     */
+    public static class Mismatch {
+        public final SplitPlanner.Split range;
+        public final long sourceRows;
+        public final long targetRows;
+
+        Mismatch(SplitPlanner.Split range, long sourceRows, long targetRows) {
+            this.range = range;
+            this.sourceRows = sourceRows;
+            this.targetRows = targetRows;
+        }
+
+        @Override
+        public String toString() {
+            return range + ": " + sourceRows + " rows on the source, " + targetRows + " on the target";
+        }
+    }
+
+    private final ConnectionPool sourcePool;
+    private final DatabaseTransfer.DBConfig sourceConfig;
+    private final ConnectionPool targetPool;
+    private final DatabaseTransfer.DBConfig targetConfig;
+    private final ExecutorService executor;
+    private final ExecutorService targetExecutor;
+    private final Map<String, String> columnLists = new ConcurrentHashMap<>();
+    private final Map<String, ColumnBinder[]> sourceBinders = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor       runs one task per range, so its size bounds the ranges checked at once
+     * @param targetExecutor reads the target side of the ranges in progress; it must not be {@code executor}
+     */
+    public TableVerifier(ConnectionPool sourcePool, DatabaseTransfer.DBConfig sourceConfig,
+                         ConnectionPool targetPool, DatabaseTransfer.DBConfig targetConfig,
+                         ExecutorService executor, ExecutorService targetExecutor) {
+        this.sourcePool = sourcePool;
+        this.sourceConfig = sourceConfig;
+        this.targetPool = targetPool;
+        this.targetConfig = targetConfig;
+        this.executor = executor;
+        this.targetExecutor = targetExecutor;
+    }
+
+    /**
+     * Verifies the given ranges, which together cover one or more tables, and returns the smallest
+     * ranges found to differ.
+     */
+    public List<Mismatch> verify(List<SplitPlanner.Split> ranges) throws SQLException, InterruptedException {
+        List<Mismatch> mismatches = new ArrayList<>();
+        List<SplitPlanner.Split> pending = ranges;
+        int level = 0;
+        while (!pending.isEmpty()) {
+            System.out.println("Verifying " + pending.size() + " ranges" + (level == 0 ? "." : " (drill-down level " + level + ")."));
+            List<Future<Digest[]>> digests = new ArrayList<>();
+            for (SplitPlanner.Split range : pending) {
+                digests.add(executor.submit(() -> digestBothSides(range)));
+            }
+
+            List<SplitPlanner.Split> next = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                SplitPlanner.Split range = pending.get(i);
+                Digest[] digest = get(digests.get(i));
+                if (digest[0].matches(digest[1])) {
+                    continue;
+                }
+                List<SplitPlanner.Split> parts = Math.max(digest[0].rows, digest[1].rows) > LEAF_ROWS ? subdivide(range) : null;
+                if (parts == null || parts.size() < 2) {
+                    mismatches.add(new Mismatch(range, digest[0].rows, digest[1].rows));
+                } else {
+                    next.addAll(parts);
+                }
+            }
+            pending = next;
+            level++;
+        }
+        return mismatches;
+    }
+
+    private static <T> T get(Future<T> future) throws SQLException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        }
+    }
+
+    /**
+     * Digests the range on the source in this thread while the target side is read on the target executor.
+     * Both sides select the source's columns in the source's order.
+     */
+    private Digest[] digestBothSides(SplitPlanner.Split range) throws SQLException, IOException, InterruptedException {
+        String columnList = columnLists.get(range.tableName);
+        if (columnList == null) {
+            TableColumns columns;
+            try (ConnectionPool.Lease source = sourcePool.lease()) {
+                columns = TypeMapping.normalize(sourceConfig.dbType, sourceColumns(source.connection(), range.tableName));
+            }
+            try (ConnectionPool.Lease target = targetPool.lease()) {
+                sourceBinders.put(range.tableName, TypeMapping.plan(target.connection(), targetConfig.dbType, range.tableName, columns).binders());
+            }
+            columnList = columns.columnList();
+            columnLists.put(range.tableName, columnList);
+        }
+        String columns = columnList;
+        Future<Digest> target = targetExecutor.submit((Callable<Digest>) () -> digest(targetPool, targetConfig, range, columns, null));
+        Digest source = digest(sourcePool, sourceConfig, range, columnList, sourceBinders.get(range.tableName));
+        return new Digest[]{source, get(target)};
+    }
+
+    private static TableColumns sourceColumns(Connection conn, String tableName) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0")) {
+            return TableColumns.of(rs.getMetaData());
+        }
+    }
+
+    /**
+     * @param binders the binders to read the rows with, or null for those of the columns as normalized for {@code config}
+     */
+    private static Digest digest(ConnectionPool pool, DatabaseTransfer.DBConfig config, SplitPlanner.Split range, String columnList,
+                                 ColumnBinder[] binders) throws SQLException, IOException {
+        String sql = "SELECT " + columnList + " FROM " + range.tableName + range.whereClause();
+        Digest digest = new Digest();
+        try (ConnectionPool.Lease lease = pool.lease();
+             PreparedStatement stmt = SourceReader.forType(config.dbType).prepare(lease.connection(), sql, config.fetchSize)) {
+            range.bind(stmt, 1);
+            try (ResultSet rs = stmt.executeQuery();
+                 RowBatch batch = new RowBatch(1000, binders != null ? binders
+                         : ColumnBinder.forColumns(TypeMapping.normalize(config.dbType, TableColumns.of(rs.getMetaData()))))) {
+                int rows;
+                do {
+                    rows = batch.fill(rs, batch.capacity(), BATCH_BYTES);
+                    for (int r = 0; r < rows; r++) {
+                        digest.hash += rowHash(batch, r);
+                    }
+                    digest.rows += rows;
+                } while (rows == batch.capacity() || batch.byteLimited());
+            }
+        }
+        return digest;
+    }
+
+    static long rowHash(RowBatch batch, int row) throws SQLException, IOException {
+        long hash = FNV_OFFSET;
+        for (int column = 1; column <= batch.columnCount(); column++) {
+            RowBatch.ColumnVector vector = batch.vector(column);
+            long value;
+            if (vector.nulls[row]) {
+                value = 0x9e3779b97f4a7c15L;
+            } else {
+                switch (batch.binder(column).storage()) {
+                    case LONG:
+                        value = vector.longs[row];
+                        break;
+                    case BOOLEAN:
+                        // an integer read as a boolean keeps its raw value, but the target stores true
+                        value = vector.longs[row] != 0 ? 1 : 0;
+                        break;
+                    case DOUBLE:
+                        value = Double.doubleToLongBits(vector.doubles[row]);
+                        break;
+                    default:
+                        value = objectHash(batch.binder(column).targetValue(vector.objects[row]));
+                        break;
+                }
+            }
+            hash = (hash ^ value) * FNV_PRIME;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static long objectHash(Object value) throws SQLException, IOException {
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            value = blob.getBytes(1, (int) blob.length());
+        } else if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            value = clob.getSubString(1, (int) clob.length());
+        }
+        if (value instanceof LobSpill.Value) {
+            return lobHash((LobSpill.Value) value);
+        }
+        if (value instanceof byte[]) {
+            long hash = FNV_OFFSET;
+            for (byte b : (byte[]) value) {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+            }
+            return hash;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            value = decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            return timestamp.getTime() * 1_000_000L + timestamp.getNanos() % 1_000_000;
+        }
+        String text = value.toString();
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a spilled large-object value as {@link #objectHash} hashes the same bytes or text on the heap.
+     */
+    private static long lobHash(LobSpill.Value value) throws IOException {
+        long hash = FNV_OFFSET;
+        if (value.isText()) {
+            try (Reader in = value.openReader()) {
+                int c;
+                while ((c = in.read()) >= 0) {
+                    hash = (hash ^ c) * FNV_PRIME;
+                }
+            }
+        } else {
+            try (InputStream in = value.openStream()) {
+                int b;
+                while ((b = in.read()) >= 0) {
+                    hash = (hash ^ b) * FNV_PRIME;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Cuts a key range into up to {@link #DRILL_PARTS} pieces of equal width between the smallest
+     * and largest key present on either side. Returns null for ranges that cannot be cut.
+     */
+    private List<SplitPlanner.Split> subdivide(SplitPlanner.Split range) throws SQLException {
+        if (!range.isKeyed()) {
+            return null;
+        }
+        Long min = null;
+        Long max = null;
+        boolean temporal = false;
+        for (ConnectionPool pool : new ConnectionPool[]{sourcePool, targetPool}) {
+            Object[] bounds = keyBounds(pool, range);
+            if (bounds == null) {
+                return null;
+            }
+            if (bounds[0] != null) {
+                temporal = bounds[0] instanceof java.util.Date;
+                min = min == null ? toLong(bounds[0]) : Math.min(min, toLong(bounds[0]));
+                max = max == null ? toLong(bounds[1]) : Math.max(max, toLong(bounds[1]));
+            }
+        }
+        if (min == null || min.equals(max)) {
+            return null;
+        }
+
+        List<Long> boundaries = SplitPlanner.boundaries(min, max, DRILL_PARTS);
+        List<SplitPlanner.Split> parts = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            Object lower = i == 0 ? range.lower : keyValue(boundaries.get(i - 1), temporal);
+            Object upper = i == boundaries.size() ? range.upper : keyValue(boundaries.get(i), temporal);
+            parts.add(new SplitPlanner.Split(range.tableName, range.column, lower, upper, false,
+                    range.after, range.watermarkColumn, range.watermarkLow, range.watermarkHigh));
+        }
+        return parts;
+    }
+
+    /**
+     * The lowest and highest key of the range, both null when it is empty, or null when they do
+     * not fit in a long and the range cannot be cut.
+     */
+    private static Object[] keyBounds(ConnectionPool pool, SplitPlanner.Split range) throws SQLException {
+        String sql = "SELECT MIN(" + range.column + "), MAX(" + range.column + ") FROM " + range.tableName + range.whereClause();
+        try (ConnectionPool.Lease lease = pool.lease();
+             PreparedStatement stmt = lease.connection().prepareStatement(sql)) {
+            range.bind(stmt, 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                Object min = rs.getObject(1);
+                if (min == null) {
+                    return new Object[2];
+                }
+                if (min instanceof java.util.Date) {
+                    return new Object[]{rs.getTimestamp(1), rs.getTimestamp(2)};
+                }
+                try {
+                    return new Object[]{rs.getBigDecimal(1).longValueExact(), rs.getBigDecimal(2).longValueExact()};
+                } catch (ArithmeticException e) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private static long toLong(Object key) {
+        return key instanceof java.util.Date ? ((java.util.Date) key).getTime() : (Long) key;
+    }
+
+    private static Object keyValue(long boundary, boolean temporal) {
+        return temporal ? new Timestamp(boundary) : (Object) boundary;
+    }
+}
@@ -0,0 +1,62 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes batches of source rows into one target table.
+ * A writer is used by a single thread: {@link #open}, then {@link #write} per batch and {@link #flush} before each commit.
+ */
+public interface TableWriter extends AutoCloseable {
+
+    void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException;
+
+    void write(RowBatch batch) throws SQLException;
+
+    /**
+     * Sends everything written so far to the target, so that committing the target connection
+     * afterwards makes all of it durable. Writing may continue after a flush.
+     */
+    void flush() throws SQLException;
+
+    @Override
+    void close() throws SQLException;
+
+    /**
+     * Picks the fastest writer for the target database type. {@code mode} "insert" forces the
+     * batched INSERT writer; anything else uses the native bulk-load path where one exists.
+     */
+    static TableWriter create(String mode, String dbType, int batchSize) {
+        if (!"insert".equalsIgnoreCase(mode) && dbType != null) {
+            switch (dbType.toLowerCase()) {
+                case "postgres":
+                case "postgresql":
+                    return new PostgresCopyWriter();
+                case "mysql":
+                    return new MySqlLoadDataWriter(batchSize);
+                default:
+                    break;
+            }
+        }
+        return new BatchInsertWriter(batchSize);
+    }
+
+    /**
+     * Picks a writer that replaces rows whose primary key already exists on the target: the native
+     * upsert statement where the dialect has one, otherwise delete-then-write in front of the
+     * writer {@link #create} would pick.
+     */
+    static TableWriter createUpsert(String mode, String dbType, int batchSize, List<String> keyColumns) {
+        if (dbType != null) {
+            switch (dbType.toLowerCase()) {
+                case "postgres":
+                case "postgresql":
+                    return new UpsertWriter(UpsertWriter.Dialect.POSTGRES, batchSize, keyColumns);
+                case "mysql":
+                    return new UpsertWriter(UpsertWriter.Dialect.MYSQL, batchSize, keyColumns);
+                default:
+                    break;
+            }
+        }
+        return new ReplacingWriter(create(mode, dbType, batchSize), keyColumns);
+    }
+}
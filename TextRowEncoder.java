@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Encodes result-set rows as tab-separated text with backslash escapes and {@code \N} for NULL,
+ * the format understood by both PostgreSQL {@code COPY} and MySQL {@code LOAD DATA}.
+ * The buffer is reused between drains and only grows to fit the largest chunk written.
+ * {@link #stream} encodes rows as they are read instead, so the buffer never holds more than one
+ * ordinary value or one chunk of a large object.
+ */
+public class TextRowEncoder {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int LOB_CHUNK = 8192;
+
+    private final byte[] binaryPrefix;
+    private final byte trueValue;
+    private final byte falseValue;
+    private final byte[] digits = new byte[19];
+    private byte[] buffer;
+    private int position;
+
+    /**
+     * @param binaryPrefix written in front of the hex digits of binary values
+     * @param trueValue    single character written for boolean true
+     * @param falseValue   single character written for boolean false
+     */
+    public TextRowEncoder(String binaryPrefix, char trueValue, char falseValue, int initialCapacity) {
+        this.binaryPrefix = binaryPrefix.getBytes(StandardCharsets.US_ASCII);
+        this.trueValue = (byte) trueValue;
+        this.falseValue = (byte) falseValue;
+        this.buffer = new byte[initialCapacity];
+    }
+
+    public static boolean isBinary(int type) {
+        return type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY || type == Types.BLOB;
+    }
+
+    /**
+     * Appends row {@code row} of the batch, terminated by a newline.
+     */
+    public void writeRow(RowBatch batch, int row) {
+        for (int i = 1; i <= batch.columnCount(); i++) {
+            if (i > 1) {
+                put((byte) '\t');
+            }
+            writeValue(batch, row, i);
+        }
+        put((byte) '\n');
+    }
+
+    private void writeValue(RowBatch batch, int row, int column) {
+        RowBatch.ColumnVector vector = batch.vector(column);
+        if (vector.nulls[row]) {
+            putNull();
+            return;
+        }
+        switch (batch.binder(column).storage()) {
+            case LONG:
+                putLong(vector.longs[row]);
+                break;
+            case BOOLEAN:
+                put(vector.longs[row] != 0 ? trueValue : falseValue);
+                break;
+            case DOUBLE:
+                putEscaped(Double.toString(vector.doubles[row]));
+                break;
+            default:
+                writeObject(batch.binder(column).targetValue(vector.objects[row]));
+                break;
+        }
+    }
+
+    private void writeObject(Object value) {
+        if (value instanceof byte[]) {
+            putBinaryPrefix();
+            for (byte b : (byte[]) value) {
+                put(HEX[(b >> 4) & 0xF]);
+                put(HEX[b & 0xF]);
+            }
+        } else if (value instanceof LobSpill.Value) {
+            writeLob((LobSpill.Value) value);
+        } else if (value instanceof Boolean) {
+            put((Boolean) value ? trueValue : falseValue);
+        } else if (value instanceof BigDecimal) {
+            putEscaped(((BigDecimal) value).toPlainString());
+        } else {
+            putEscaped(value.toString());
+        }
+    }
+
+    /**
+     * Streams a large-object value from its spill file into the buffer, a chunk at a time.
+     */
+    private void writeLob(LobSpill.Value value) {
+        try {
+            if (value.isText()) {
+                try (Reader in = value.openReader()) {
+                    char[] chunk = new char[LOB_CHUNK];
+                    while (putTextChunk(in, chunk)) {
+                        // until the end of the value
+                    }
+                }
+            } else {
+                putBinaryPrefix();
+                try (InputStream in = value.openStream()) {
+                    byte[] chunk = new byte[LOB_CHUNK];
+                    while (putBinaryChunk(in, chunk)) {
+                        // until the end of the value
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes the next chunk of text from {@code in}; false once it is exhausted.
+     */
+    private boolean putTextChunk(Reader in, char[] chunk) throws IOException {
+        int n = in.read(chunk, 0, chunk.length - 1);
+        if (n <= 0) {
+            return false;
+        }
+        // keep surrogate pairs together
+        if (Character.isHighSurrogate(chunk[n - 1])) {
+            int next = in.read();
+            if (next >= 0) {
+                chunk[n++] = (char) next;
+            }
+        }
+        putEscaped(new String(chunk, 0, n));
+        return true;
+    }
+
+    /**
+     * Encodes the next chunk of bytes from {@code in} as hex; false once it is exhausted.
+     */
+    private boolean putBinaryChunk(InputStream in, byte[] chunk) throws IOException {
+        int n = in.read(chunk);
+        if (n <= 0) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            put(HEX[(chunk[i] >> 4) & 0xF]);
+            put(HEX[chunk[i] & 0xF]);
+        }
+        return true;
+    }
+
+    private void putBinaryPrefix() {
+        for (byte b : binaryPrefix) {
+            put(b);
+        }
+    }
+
+    /**
+     * Writes the decimal digits of a long without going through a String.
+     */
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            putEscaped(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start; i < digits.length; i++) {
+            put(digits[i]);
+        }
+    }
+
+    private void putNull() {
+        put((byte) '\\');
+        put((byte) 'N');
+    }
+
+    private void putEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    put((byte) '\\');
+                    put((byte) '\\');
+                    break;
+                case '\t':
+                    put((byte) '\\');
+                    put((byte) 't');
+                    break;
+                case '\n':
+                    put((byte) '\\');
+                    put((byte) 'n');
+                    break;
+                case '\r':
+                    put((byte) '\\');
+                    put((byte) 'r');
+                    break;
+                default:
+                    if (c < 0x80) {
+                        put((byte) c);
+                    } else {
+                        int end = i + 1;
+                        if (Character.isHighSurrogate(c) && end < value.length()) {
+                            end++;
+                        }
+                        for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                            put(b);
+                        }
+                        i = end - 1;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void put(byte b) {
+        if (position == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[position++] = b;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return position;
+    }
+
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * Rows {@code from} (inclusive) to {@code to} (exclusive) of the batch, encoded as the stream is
+     * read. Large-object values are read from their spill files a chunk at a time. The stream uses
+     * this encoder's buffer, so the encoder must not be used for anything else until it is exhausted.
+     */
+    public RowStream stream(RowBatch batch, int from, int to) {
+        reset();
+        return new RowStream(batch, from, to);
+    }
+
+    /**
+     * The encoded rows of a {@link #stream}.
+     */
+    public class RowStream extends InputStream {
+        private final RowBatch batch;
+        private int row;
+        private final int end;
+        private int column = 1;
+        private int rows;
+        private int readPosition;
+        private Reader lobText;
+        private InputStream lobBytes;
+        private char[] chars;
+        private byte[] bytes;
+
+        RowStream(RowBatch batch, int from, int to) {
+            this.batch = batch;
+            this.row = from;
+            this.end = to;
+        }
+
+        /**
+         * Rows encoded so far; all of them once the stream has been read to the end.
+         */
+        public int rows() {
+            return rows;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (readPosition == position && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, position - readPosition);
+            System.arraycopy(buffer, readPosition, b, off, n);
+            readPosition += n;
+            return n;
+        }
+
+        /**
+         * Encodes at least one more byte into the emptied buffer; false at the end of the rows.
+         */
+        private boolean fill() throws IOException {
+            TextRowEncoder.this.reset();
+            readPosition = 0;
+            while (position == 0) {
+                if (lobText != null) {
+                    if (!putTextChunk(lobText, chars)) {
+                        lobText.close();
+                        lobText = null;
+                    }
+                } else if (lobBytes != null) {
+                    if (!putBinaryChunk(lobBytes, bytes)) {
+                        lobBytes.close();
+                        lobBytes = null;
+                    }
+                } else if (row < end) {
+                    nextValue();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Encodes the next value with the separator before it, or only opens it if it is a large object.
+         */
+        private void nextValue() {
+            if (column > batch.columnCount()) {
+                put((byte) '\n');
+                column = 1;
+                row++;
+                rows++;
+                return;
+            }
+            if (column > 1) {
+                put((byte) '\t');
+            }
+            RowBatch.ColumnVector vector = batch.vector(column);
+            Object value = vector.objects == null || vector.nulls[row] ? null : batch.binder(column).targetValue(vector.objects[row]);
+            if (value instanceof LobSpill.Value) {
+                LobSpill.Value lob = (LobSpill.Value) value;
+                if (lob.isText()) {
+                    chars = chars != null ? chars : new char[LOB_CHUNK];
+                    lobText = lob.openReader();
+                } else {
+                    bytes = bytes != null ? bytes : new byte[LOB_CHUNK];
+                    putBinaryPrefix();
+                    lobBytes = lob.openStream();
+                }
+            } else {
+                writeValue(batch, row, column);
+            }
+            column++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (lobText != null) {
+                lobText.close();
+                lobText = null;
+            }
+            if (lobBytes != null) {
+                lobBytes.close();
+                lobBytes = null;
+            }
+        }
+    }
+}
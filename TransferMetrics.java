@@ -0,0 +1,264 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Counters for one transfer run, kept per table. Besides rows and bytes it splits the time of each
+ * table into source reads, target writes, and the time either side spent waiting on the other.
+ * A reader blocked on full ring buffers means the table is write-bound; writers idling on an empty
+ * ring mean it is read-bound. Time a reader waited for the {@link MemoryGovernor} is counted
+ * apart from both. Snapshots go to stdout as key=value lines and, optionally, to a local HTTP
+ * endpoint in the Prometheus text format.
+ */
+public class TransferMetrics implements AutoCloseable {
+
+    /**
+     * Batch latencies in power-of-two millisecond buckets: bucket i counts latencies of at most
+     * 2^i ms and more than the bound below it, as Prometheus {@code le} buckets do. Latencies above
+     * the last bound are only counted in the total.
+     */
+    public static class LatencyHistogram {
+        private static final int BUCKETS = 20;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        public void record(long nanos) {
+            int bucket = bucket(nanos);
+            if (bucket < BUCKETS) {
+                counts.incrementAndGet(bucket);
+            }
+            total.increment();
+            totalNanos.add(nanos);
+        }
+
+        /**
+         * The smallest i with {@code nanos <= 2^i ms}, or {@link #BUCKETS} above the last bound.
+         */
+        static int bucket(long nanos) {
+            long millis = (nanos + 999_999L) / 1_000_000L;
+            return millis <= 1 ? 0 : Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(millis - 1));
+        }
+
+        public long count() {
+            return total.sum();
+        }
+
+        public double sumMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        /**
+         * Returns the upper bound in milliseconds of the bucket holding the given quantile, or 0 without samples.
+         */
+        public long quantileMillis(double quantile) {
+            long count = total.sum();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+
+    public static class Table {
+        private final long started = System.nanoTime();
+        private volatile long lastUpdate = started;
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder readNanos = new LongAdder();
+        final LongAdder writeNanos = new LongAdder();
+        final LongAdder readerBlockedNanos = new LongAdder();
+        final LongAdder writerIdleNanos = new LongAdder();
+        final LongAdder memoryWaitNanos = new LongAdder();
+        final LongAdder resumedRanges = new LongAdder();
+        final LatencyHistogram batchLatency = new LatencyHistogram();
+
+        public void read(long nanos) {
+            readNanos.add(nanos);
+        }
+
+        public void readerBlocked(long nanos) {
+            readerBlockedNanos.add(nanos);
+        }
+
+        public void writerIdle(long nanos) {
+            writerIdleNanos.add(nanos);
+        }
+
+        public void memoryWait(long nanos) {
+            memoryWaitNanos.add(nanos);
+        }
+
+        /**
+         * Records one batch written to the target, {@code nanos} being its write, flush and commit time.
+         */
+        public void written(int batchRows, long batchBytes, long nanos) {
+            rows.add(batchRows);
+            bytes.add(batchBytes);
+            batches.increment();
+            writeNanos.add(nanos);
+            batchLatency.record(nanos);
+            lastUpdate = System.nanoTime();
+        }
+
+        public void resumed() {
+            resumedRanges.increment();
+        }
+
+        double elapsedSeconds() {
+            return Math.max(1, lastUpdate - started) / 1e9;
+        }
+
+        String bound() {
+            long blocked = readerBlockedNanos.sum();
+            long idle = writerIdleNanos.sum();
+            if (blocked == 0 && idle == 0) {
+                return "unknown";
+            }
+            return blocked > idle ? "write" : "read";
+        }
+    }
+
+    private final Map<String, Table> tables = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService reporter;
+    private HttpServer server;
+
+    public Table table(String tableName) {
+        return tables.computeIfAbsent(tableName, name -> new Table());
+    }
+
+    /**
+     * Prints a snapshot of every table every {@code intervalSeconds}.
+     */
+    public void startReporting(long intervalSeconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Serves the metrics at {@code http://localhost:<port>/metrics}. Binds to the loopback interface only.
+     */
+    public void startHttp(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Serving metrics on http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public void report() {
+        long rows = 0;
+        long bytes = 0;
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            Table table = entry.getValue();
+            rows += table.rows.sum();
+            bytes += table.bytes.sum();
+            System.out.println(line(entry.getKey(), table));
+        }
+        System.out.println("metrics table=* rows=" + rows + " bytes=" + bytes);
+    }
+
+    private static String line(String name, Table table) {
+        double seconds = table.elapsedSeconds();
+        return "metrics table=" + name
+                + " rows=" + table.rows.sum()
+                + " bytes=" + table.bytes.sum()
+                + " batches=" + table.batches.sum()
+                + " rows_per_sec=" + Math.round(table.rows.sum() / seconds)
+                + " bytes_per_sec=" + Math.round(table.bytes.sum() / seconds)
+                + " read_ms=" + table.readNanos.sum() / 1_000_000L
+                + " write_ms=" + table.writeNanos.sum() / 1_000_000L
+                + " reader_blocked_ms=" + table.readerBlockedNanos.sum() / 1_000_000L
+                + " writer_idle_ms=" + table.writerIdleNanos.sum() / 1_000_000L
+                + " memory_wait_ms=" + table.memoryWaitNanos.sum() / 1_000_000L
+                + " bound=" + table.bound()
+                + " batch_p50_ms=" + table.batchLatency.quantileMillis(0.5)
+                + " batch_p95_ms=" + table.batchLatency.quantileMillis(0.95)
+                + " batch_p99_ms=" + table.batchLatency.quantileMillis(0.99)
+                + " resumed_ranges=" + table.resumedRanges.sum();
+    }
+
+    /**
+     * The metrics in the Prometheus text format, each family as one group of lines under its type.
+     */
+    String prometheus() {
+        StringBuilder out = new StringBuilder();
+        counter(out, "transfer_rows_total", table -> table.rows.sum());
+        counter(out, "transfer_bytes_total", table -> table.bytes.sum());
+        counter(out, "transfer_batches_total", table -> table.batches.sum());
+        counter(out, "transfer_read_seconds_total", table -> table.readNanos.sum() / 1e9);
+        counter(out, "transfer_write_seconds_total", table -> table.writeNanos.sum() / 1e9);
+        counter(out, "transfer_reader_blocked_seconds_total", table -> table.readerBlockedNanos.sum() / 1e9);
+        counter(out, "transfer_writer_idle_seconds_total", table -> table.writerIdleNanos.sum() / 1e9);
+        counter(out, "transfer_memory_wait_seconds_total", table -> table.memoryWaitNanos.sum() / 1e9);
+        counter(out, "transfer_resumed_ranges_total", table -> table.resumedRanges.sum());
+
+        out.append("# TYPE transfer_batch_latency_ms histogram\n");
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            LatencyHistogram histogram = entry.getValue().batchLatency;
+            String label = label(entry.getKey());
+            String prefix = label.substring(0, label.length() - 1);
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                cumulative += histogram.counts.get(i);
+                out.append("transfer_batch_latency_ms_bucket").append(prefix).append(",le=\"").append(1L << i).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("transfer_batch_latency_ms_bucket").append(prefix).append(",le=\"+Inf\"} ").append(histogram.count()).append('\n');
+            out.append("transfer_batch_latency_ms_sum").append(label).append(' ').append(histogram.sumMillis()).append('\n');
+            out.append("transfer_batch_latency_ms_count").append(label).append(' ').append(histogram.count()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private void counter(StringBuilder out, String name, Function<Table, Number> value) {
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            out.append(name).append(label(entry.getKey())).append(' ').append(value.apply(entry.getValue())).append('\n');
+        }
+    }
+
+    private static String label(String table) {
+        return "{table=\"" + table.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    @Override
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,565 @@
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps column types between database dialects, keyed on the source and target {@code dbType} and
+ * the JDBC type and type name of every column. It works in three places:
+ * <ul>
+ * <li>{@link #normalize} runs on the source side and turns vendor types into ones every target
+ * can take: unsigned integers are widened, and JSON, UUID, arrays, XML and other driver-specific
+ * objects are read as their text form instead of through {@code getObject}.</li>
+ * <li>{@link #plan} compiles, once per target table, the binders that write those values into
+ * the target's actual column types: integers into PostgreSQL booleans and back, text into typed
+ * PostgreSQL columns (json, uuid, arrays, enums) through a server-side cast, and PostgreSQL arrays
+ * as JSON into other databases.</li>
+ * <li>{@link #createTableSQL} writes the DDL for a table that is missing on the target.</li>
+ * </ul>
+ */
+public class TypeMapping {
+
+    enum Dialect {
+        POSTGRES, MYSQL, OTHER;
+
+        static Dialect of(String dbType) {
+            if (dbType == null) {
+                return OTHER;
+            }
+            switch (dbType.toLowerCase(Locale.ROOT)) {
+                case "postgres":
+                case "postgresql":
+                    return POSTGRES;
+                case "mysql":
+                    return MYSQL;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    private static final Set<String> PG_TEXT_TYPES = new HashSet<>(Arrays.asList("varchar", "text", "bpchar", "char", "name", "citext"));
+
+    /**
+     * Binders for one target table, compiled by {@link #plan}.
+     */
+    public static class Plan {
+        private final ColumnBinder[] binders;
+        private final List<String> conversions;
+
+        Plan(ColumnBinder[] binders, List<String> conversions) {
+            this.binders = binders;
+            this.conversions = conversions;
+        }
+
+        public ColumnBinder[] binders() {
+            return binders;
+        }
+
+        /**
+         * The rows of the batch as this target's writers should bind and encode them.
+         */
+        public RowBatch view(RowBatch batch) {
+            return conversions.isEmpty() ? batch : batch.withBinders(binders);
+        }
+
+        /**
+         * One "column source-type -> target-type" entry per converted column.
+         */
+        public List<String> conversions() {
+            return conversions;
+        }
+    }
+
+    /**
+     * Returns the columns with the JDBC types they should be read as. Names and type names are kept,
+     * so the original types are still known when a plan or DDL is made from the result.
+     */
+    public static TableColumns normalize(String sourceDbType, TableColumns columns) {
+        TableColumns normalized = new TableColumns(columns.count());
+        for (int i = 1; i <= columns.count(); i++) {
+            normalized.names[i] = columns.names[i];
+            normalized.typeNames[i] = columns.typeNames[i];
+            normalized.types[i] = readType(Dialect.of(sourceDbType), columns.types[i], columns.typeNames[i]);
+        }
+        return normalized;
+    }
+
+    private static int readType(Dialect source, int type, String typeName) {
+        String name = typeName == null ? "" : typeName.toLowerCase(Locale.ROOT);
+        if (name.contains("unsigned")) {
+            // the signed accessor of the same width overflows for the upper half of the range
+            if (type == Types.INTEGER) {
+                return Types.BIGINT;
+            }
+            if (type == Types.BIGINT) {
+                return Types.DECIMAL;
+            }
+        }
+        if (name.equals("uuid")) {
+            // some drivers report UUIDs as 16-byte binaries; the text form fits every target
+            return Types.VARCHAR;
+        }
+        if (source == Dialect.POSTGRES && name.equals("money")) {
+            // reported as DOUBLE, but getDouble fails on the currency-formatted value
+            return Types.VARCHAR;
+        }
+        switch (type) {
+            case Types.OTHER:
+            case Types.ARRAY:
+            case Types.SQLXML:
+            case Types.STRUCT:
+            case Types.DISTINCT:
+            case Types.JAVA_OBJECT:
+                return Types.VARCHAR;
+            default:
+                return type;
+        }
+    }
+
+    /**
+     * Compiles the binders for writing rows with the given (normalized) columns into a table on the
+     * target, from the target's own column types. Columns the target does not have are left to the
+     * writer to report.
+     */
+    public static Plan plan(Connection targetConn, String targetDbType, String tableName, TableColumns columns) throws SQLException {
+        Dialect target = Dialect.of(targetDbType);
+        Map<String, TargetColumn> targetColumns = targetColumns(targetConn, tableName);
+        ColumnBinder[] binders = ColumnBinder.forColumns(columns);
+        List<String> conversions = new ArrayList<>();
+        for (int i = 1; i <= columns.count(); i++) {
+            TargetColumn targetColumn = targetColumns.get(columns.names[i].toLowerCase(Locale.ROOT));
+            if (targetColumn == null) {
+                continue;
+            }
+            ColumnBinder converted = convert(target, columns.types[i], columns.typeNames[i], targetColumn);
+            if (converted != null) {
+                binders[i] = converted;
+                conversions.add(columns.names[i] + " " + columns.typeNames[i] + " -> " + targetColumn.typeName);
+            }
+        }
+        return new Plan(binders, conversions);
+    }
+
+    private static class TargetColumn {
+        int type;
+        String typeName;
+    }
+
+    private static Map<String, TargetColumn> targetColumns(Connection conn, String tableName) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(conn, tableName);
+        Map<String, TargetColumn> columns = new HashMap<>();
+        try (ResultSet rs = conn.getMetaData().getColumns(null, parts[0], parts[1], null)) {
+            while (rs.next()) {
+                TargetColumn column = new TargetColumn();
+                column.type = rs.getInt("DATA_TYPE");
+                column.typeName = rs.getString("TYPE_NAME");
+                columns.put(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT), column);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Returns a binder for a column whose values the default binder would not get into the target
+     * column, or null when the default binder does.
+     */
+    private static ColumnBinder convert(Dialect target, int type, String typeName, TargetColumn targetColumn) {
+        String targetTypeName = targetColumn.typeName == null ? "" : targetColumn.typeName.toLowerCase(Locale.ROOT);
+        boolean pgArray = isText(type) && typeName != null && typeName.startsWith("_");
+        if (target != Dialect.POSTGRES) {
+            return pgArray ? new ArrayJsonBinder(type, "_bool".equals(typeName)) : null;
+        }
+        if (isInteger(type) && targetTypeName.equals("bool")) {
+            return new IntAsBooleanBinder();
+        }
+        if ((type == Types.BIT || type == Types.BOOLEAN) && isInteger(targetColumn.type)) {
+            return new BooleanAsIntBinder(targetColumn.type);
+        }
+        if (isText(type) && !PG_TEXT_TYPES.contains(targetTypeName)) {
+            return new PgCastBinder();
+        }
+        return null;
+    }
+
+    private static boolean isInteger(int type) {
+        return type == Types.TINYINT || type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT;
+    }
+
+    private static boolean isText(int type) {
+        switch (type) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates {@code tableName} on the target from the columns of the source table unless it
+     * exists already. Returns the statement that was run, or null.
+     */
+    public static String createTableIfMissing(Connection sourceConn, String sourceDbType, Connection targetConn,
+                                              String targetDbType, String tableName) throws SQLException {
+        String[] parts = SplitPlanner.splitQualifiedName(targetConn, tableName);
+        try (ResultSet rs = targetConn.getMetaData().getTables(null, parts[0], parts[1], null)) {
+            if (rs.next()) {
+                return null;
+            }
+        }
+        String ddl;
+        try (Statement stmt = sourceConn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0")) {
+            ddl = createTableSQL(sourceDbType, targetDbType, tableName, rs.getMetaData(), TableKeys.primaryKey(sourceConn, tableName));
+        }
+        try (Statement stmt = targetConn.createStatement()) {
+            stmt.execute(ddl);
+        }
+        if (!targetConn.getAutoCommit()) {
+            targetConn.commit();
+        }
+        return ddl;
+    }
+
+    /**
+     * {@code CREATE TABLE} for the target dialect with the source's columns, their nullability and
+     * the primary key. Defaults, identity columns and other constraints are not carried over.
+     */
+    public static String createTableSQL(String sourceDbType, String targetDbType, String tableName,
+                                        ResultSetMetaData source, List<String> primaryKey) throws SQLException {
+        Dialect sourceDialect = Dialect.of(sourceDbType);
+        Dialect target = Dialect.of(targetDbType);
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(tableName).append(" (");
+        for (int i = 1; i <= source.getColumnCount(); i++) {
+            if (i > 1) {
+                ddl.append(", ");
+            }
+            ddl.append(source.getColumnName(i)).append(' ')
+                    .append(targetType(sourceDialect, target, source.getColumnType(i), source.getColumnTypeName(i),
+                            source.getPrecision(i), source.getScale(i)));
+            if (source.isNullable(i) == ResultSetMetaData.columnNoNulls) {
+                ddl.append(" NOT NULL");
+            }
+        }
+        if (!primaryKey.isEmpty()) {
+            ddl.append(", PRIMARY KEY (").append(String.join(", ", primaryKey)).append(")");
+        }
+        return ddl.append(")").toString();
+    }
+
+    /**
+     * The column type on {@code target} for a source column. Lengths and precisions that are
+     * missing or beyond what the target allows fall back to the unbounded type.
+     */
+    static String targetType(Dialect source, Dialect target, int type, String typeName, int precision, int scale) {
+        String name = typeName == null ? "" : typeName.toLowerCase(Locale.ROOT);
+        boolean unsigned = name.contains("unsigned");
+        switch (name) {
+            case "json":
+            case "jsonb":
+                return pick(target, "jsonb", "json", "CLOB");
+            case "uuid":
+                return pick(target, "uuid", "char(36)", "CHAR(36)");
+            case "money":
+                return pick(target, source == Dialect.POSTGRES ? "money" : "numeric(19,2)", "decimal(19,2)", "NUMERIC(19,2)");
+            case "xml":
+                return pick(target, "xml", "longtext", "CLOB");
+            case "inet":
+            case "cidr":
+            case "macaddr":
+                return pick(target, name, "varchar(64)", "VARCHAR(64)");
+            case "timestamptz":
+                return pick(target, "timestamptz", "datetime(6)", "TIMESTAMP WITH TIME ZONE");
+            case "timetz":
+                return pick(target, "timetz", "time(6)", "TIME WITH TIME ZONE");
+            default:
+                break;
+        }
+        boolean sized = precision > 0 && precision <= 10485760;
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return pick(target, "boolean", "tinyint(1)", "BOOLEAN");
+            case Types.TINYINT:
+                return pick(target, "smallint", unsigned ? "tinyint unsigned" : "tinyint", "SMALLINT");
+            case Types.SMALLINT:
+                return unsigned ? pick(target, "integer", "smallint unsigned", "INTEGER") : pick(target, "smallint", "smallint", "SMALLINT");
+            case Types.INTEGER:
+                return unsigned ? pick(target, "bigint", "int unsigned", "BIGINT") : pick(target, "integer", "int", "INTEGER");
+            case Types.BIGINT:
+                return unsigned ? pick(target, "numeric(20)", "bigint unsigned", "NUMERIC(20)") : pick(target, "bigint", "bigint", "BIGINT");
+            case Types.REAL:
+                return pick(target, "real", "float", "REAL");
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return pick(target, "double precision", "double", "DOUBLE PRECISION");
+            case Types.NUMERIC:
+            case Types.DECIMAL: {
+                boolean bounded = precision > 0 && precision <= 1000;
+                String numeric = "(" + precision + "," + Math.max(0, scale) + ")";
+                return pick(target, bounded ? "numeric" + numeric : "numeric",
+                        bounded && precision <= 65 && scale <= 30 ? "decimal" + numeric : "decimal(65,30)",
+                        bounded ? "NUMERIC" + numeric : "NUMERIC");
+            }
+            case Types.CHAR:
+            case Types.NCHAR:
+                if (!sized) {
+                    return pick(target, "text", "longtext", "CLOB");
+                }
+                return pick(target, "char(" + precision + ")", precision <= 255 ? "char(" + precision + ")" : "longtext", "CHAR(" + precision + ")");
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+                if (!sized || name.equals("text")) {
+                    return pick(target, "text", "longtext", "CLOB");
+                }
+                return pick(target, "varchar(" + precision + ")", precision <= 16383 ? "varchar(" + precision + ")" : "longtext",
+                        "VARCHAR(" + precision + ")");
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return pick(target, "text", "longtext", "CLOB");
+            case Types.BINARY:
+            case Types.VARBINARY:
+                if (!sized || precision > 65535) {
+                    return pick(target, "bytea", "longblob", "BLOB");
+                }
+                return pick(target, "bytea", (type == Types.BINARY ? "binary(" : "varbinary(") + precision + ")", "VARBINARY(" + precision + ")");
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return pick(target, "bytea", "longblob", "BLOB");
+            case Types.DATE:
+                return pick(target, "date", "date", "DATE");
+            case Types.TIME:
+                return pick(target, "time", "time(6)", "TIME");
+            case Types.TIMESTAMP:
+                return pick(target, "timestamp", "datetime(6)", "TIMESTAMP");
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return pick(target, "timestamptz", "datetime(6)", "TIMESTAMP WITH TIME ZONE");
+            case Types.ARRAY:
+                return pick(target, source == Dialect.POSTGRES && name.startsWith("_") ? name.substring(1) + "[]" : "text[]", "json", "CLOB");
+            default:
+                // enums and other user-defined types may not exist on the target
+                return pick(target, "text", "longtext", "CLOB");
+        }
+    }
+
+    private static String pick(Dialect target, String postgres, String mysql, String other) {
+        switch (target) {
+            case POSTGRES:
+                return postgres;
+            case MYSQL:
+                return mysql;
+            default:
+                return other;
+        }
+    }
+
+    /**
+     * Rewrites a PostgreSQL array literal such as {@code {1,NULL,"a b",{2,3}}} as a JSON array.
+     * Unquoted elements that look like numbers stay numbers; with {@code booleans}, {@code t} and
+     * {@code f} become {@code true} and {@code false}.
+     */
+    static String pgArrayToJson(String literal, boolean booleans) {
+        StringBuilder json = new StringBuilder(literal.length() + 8);
+        int i = 0;
+        if (literal.startsWith("[")) {
+            // explicit bounds, as in [0:2]={1,2,3}
+            i = literal.indexOf('=') + 1;
+        }
+        for (; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '{') {
+                json.append('[');
+            } else if (c == '}') {
+                json.append(']');
+            } else if (c == ',') {
+                json.append(',');
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                for (i++; literal.charAt(i) != '"'; i++) {
+                    if (literal.charAt(i) == '\\') {
+                        i++;
+                    }
+                    value.append(literal.charAt(i));
+                }
+                appendJsonString(json, value);
+            } else if (!Character.isWhitespace(c)) {
+                int start = i;
+                while (i + 1 < literal.length() && literal.charAt(i + 1) != ',' && literal.charAt(i + 1) != '}') {
+                    i++;
+                }
+                String token = literal.substring(start, i + 1).trim();
+                if (token.equalsIgnoreCase("NULL")) {
+                    json.append("null");
+                } else if (booleans && (token.equals("t") || token.equals("f"))) {
+                    json.append(token.equals("t") ? "true" : "false");
+                } else if (token.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                    json.append(token);
+                } else {
+                    appendJsonString(json, token);
+                }
+            }
+        }
+        return json.toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, CharSequence value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Integer source column into a PostgreSQL boolean, which refuses integer parameters.
+     */
+    static class IntAsBooleanBinder extends ColumnBinder {
+        IntAsBooleanBinder() {
+            super(Types.BOOLEAN);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.BOOLEAN;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.longs[row] = rs.getLong(column);
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setBoolean(param, vector.longs[row] != 0);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            long value = rs.getLong(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setBoolean(column, value != 0);
+            }
+        }
+    }
+
+    /**
+     * Boolean source column into a PostgreSQL integer column, which refuses boolean parameters.
+     */
+    static class BooleanAsIntBinder extends ColumnBinder {
+        BooleanAsIntBinder(int targetType) {
+            super(targetType);
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.LONG;
+        }
+
+        @Override
+        public void read(ResultSet rs, int column, RowBatch.ColumnVector vector, int row) throws SQLException {
+            vector.longs[row] = rs.getBoolean(column) ? 1 : 0;
+            vector.nulls[row] = rs.wasNull();
+        }
+
+        @Override
+        public void bind(PreparedStatement pstmt, int param, RowBatch.ColumnVector vector, int row) throws SQLException {
+            if (vector.nulls[row]) {
+                pstmt.setNull(param, sqlType);
+            } else {
+                pstmt.setInt(param, (int) vector.longs[row]);
+            }
+        }
+
+        @Override
+        public void copy(ResultSet rs, PreparedStatement pstmt, int column) throws SQLException {
+            boolean value = rs.getBoolean(column);
+            if (rs.wasNull()) {
+                pstmt.setNull(column, sqlType);
+            } else {
+                pstmt.setInt(column, value ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Text into a typed PostgreSQL column (json, uuid, arrays, enums, numbers): the value is sent
+     * untyped so that the server casts it to the column type, as it would a literal.
+     */
+    static class PgCastBinder extends ColumnBinder.ReferenceBinder {
+        PgCastBinder() {
+            super(Types.OTHER);
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            if (value instanceof LobSpill.Value) {
+                // a cast needs the whole text as one parameter
+                try {
+                    value = ((LobSpill.Value) value).text();
+                } catch (IOException e) {
+                    throw new SQLException("Could not read spilled LOB: " + e.getMessage(), e);
+                }
+            }
+            pstmt.setObject(param, value, Types.OTHER);
+        }
+    }
+
+    /**
+     * PostgreSQL array, read as its text literal, into a database without arrays as a JSON array.
+     */
+    static class ArrayJsonBinder extends ColumnBinder.ReferenceBinder {
+        private final boolean booleans;
+
+        ArrayJsonBinder(int sqlType, boolean booleans) {
+            super(sqlType);
+            this.booleans = booleans;
+        }
+
+        @Override
+        Object get(ResultSet rs, int column) throws SQLException {
+            return rs.getString(column);
+        }
+
+        @Override
+        void set(PreparedStatement pstmt, int param, Object value) throws SQLException {
+            pstmt.setString(param, (String) value);
+        }
+
+        @Override
+        public Object targetValue(Object value) {
+            return pgArrayToJson((String) value, booleans);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batched INSERT that updates the existing row when the primary key is already present, using
+ * the target dialect's native upsert. On PostgreSQL rows whose values did not change (compared by
+ * their text form) are left alone, so re-runs only write what actually differs.
+ */
+public class UpsertWriter extends BatchInsertWriter {
+
+    public enum Dialect { POSTGRES, MYSQL }
+
+    private final Dialect dialect;
+    private final List<String> keyColumns;
+    private boolean rowAlias;
+
+    public UpsertWriter(Dialect dialect, int batchSize, List<String> keyColumns) {
+        super(batchSize);
+        this.dialect = dialect;
+        this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public void open(Connection targetConn, String tableName, TableColumns columns) throws SQLException {
+        rowAlias = dialect == Dialect.MYSQL && supportsRowAlias(targetConn.getMetaData());
+        super.open(targetConn, tableName, columns);
+    }
+
+    /**
+     * MySQL 8.0.19 added {@code INSERT ... AS alias}, and 8.0.20 deprecated {@code VALUES(col)} in
+     * favour of it. MariaDB has no row alias and keeps {@code VALUES(col)}.
+     */
+    static boolean supportsRowAlias(DatabaseMetaData metaData) throws SQLException {
+        String version = metaData.getDatabaseProductVersion();
+        if (version == null || version.contains("MariaDB") || metaData.getDatabaseProductName().contains("MariaDB")) {
+            return false;
+        }
+        String[] parts = version.split("[^0-9]+");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            int patch = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+            return major > 8 || (major == 8 && (minor > 0 || patch >= 19));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected String insertSQL(String tableName, TableColumns columns) throws SQLException {
+        List<String> updated = new ArrayList<>();
+        for (int i = 1; i <= columns.count(); i++) {
+            if (!isKey(columns.names[i])) {
+                updated.add(columns.names[i]);
+            }
+        }
+        for (String key : keyColumns) {
+            if (columns.indexOf(key) < 0) {
+                throw new SQLException("Key column " + key + " of " + tableName + " is not selected from the source");
+            }
+        }
+
+        switch (dialect) {
+            case POSTGRES:
+                return postgresUpsert(tableName, columns, updated);
+            case MYSQL:
+            default:
+                return mysqlUpsert(super.insertSQL(tableName, columns), updated);
+        }
+    }
+
+    private String postgresUpsert(String tableName, TableColumns columns, List<String> updated) {
+        // alias the target so the WHERE can tell the stored row from the proposed one
+        StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " AS target " + columnsAndValues(columns))
+                .append(" ON CONFLICT (").append(String.join(",", keyColumns)).append(")");
+        if (updated.isEmpty()) {
+            return sql.append(" DO NOTHING").toString();
+        }
+
+        sql.append(" DO UPDATE SET ");
+        StringBuilder current = new StringBuilder();
+        StringBuilder proposed = new StringBuilder();
+        for (int i = 0; i < updated.size(); i++) {
+            String column = updated.get(i);
+            String separator = i > 0 ? ", " : "";
+            sql.append(separator).append(column).append(" = EXCLUDED.").append(column);
+            current.append(separator).append("target.").append(column).append("::text");
+            proposed.append(separator).append("EXCLUDED.").append(column).append("::text");
+        }
+        // compared as text: json, xml, point and other types have no equality operator, and two
+        // values of the same column type are equal whenever their text forms are
+        return sql.append(" WHERE ROW(").append(current).append(") IS DISTINCT FROM ROW(").append(proposed).append(")").toString();
+    }
+
+    private String mysqlUpsert(String insertSQL, List<String> updated) {
+        // MySQL has no DO NOTHING; assigning a key column to itself is the usual no-op
+        if (updated.isEmpty()) {
+            String key = keyColumns.get(0);
+            return insertSQL + " ON DUPLICATE KEY UPDATE " + key + " = " + key;
+        }
+        StringBuilder sql = new StringBuilder(insertSQL).append(rowAlias ? " AS new" : "").append(" ON DUPLICATE KEY UPDATE ");
+        for (int i = 0; i < updated.size(); i++) {
+            String column = updated.get(i);
+            sql.append(i > 0 ? ", " : "").append(column).append(" = ");
+            if (rowAlias) {
+                sql.append("new.").append(column);
+            } else {
+                sql.append("VALUES(").append(column).append(")");
+            }
+        }
+        return sql.toString();
+    }
+
+    private boolean isKey(String column) {
+        for (String key : keyColumns) {
+            if (key.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
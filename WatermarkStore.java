@@ -0,0 +1,50 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Persists the high-water mark of each incrementally synced table in a properties file,
+ * so the next run only selects rows above it.
+ */
+public class WatermarkStore {
+
+    private final File file;
+    private final Properties marks = new Properties();
+
+    public WatermarkStore(String path) throws IOException {
+        file = new File(path);
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                marks.load(reader);
+            }
+        }
+    }
+
+    /**
+     * Returns the mark stored for the table, or null when the table has never been synced.
+     */
+    public synchronized Object get(String tableName) {
+        String value = marks.getProperty(tableName);
+        return value == null ? null : CheckpointStore.decode(value);
+    }
+
+    /**
+     * Stores a new mark and rewrites the file. The file is replaced atomically so that a crash
+     * never leaves the marks of the other tables behind half-written.
+     */
+    public synchronized void put(String tableName, Object mark) throws IOException {
+        String value = CheckpointStore.encode(mark);
+        if (value == null) {
+            throw new IOException("Unsupported watermark type for " + tableName + ": " + mark.getClass().getName());
+        }
+        marks.setProperty(tableName, value);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            marks.store(writer, "DatabaseTransfer watermarks");
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
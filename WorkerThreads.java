@@ -0,0 +1,30 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the kind of thread the transfer's workers run on. Virtual threads (Java 21) make a blocked
+ * JDBC call cost a few hundred bytes of heap instead of a platform thread and its stack, so worker
+ * counts can follow the connection pools rather than what the OS can schedule. They are looked up
+ * reflectively, so the tool still builds and runs on older JDKs, where it falls back to platform threads.
+ */
+public class WorkerThreads {
+
+    /**
+     * Returns a factory for virtual threads when {@code virtual} is set and the JDK has them,
+     * otherwise the default platform thread factory.
+     */
+    public static ThreadFactory factory(boolean virtual) {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads need Java 21 or later, running on platform threads (Java "
+                        + System.getProperty("java.specification.version") + ").");
+            }
+        }
+        return Executors.defaultThreadFactory();
+    }
+}
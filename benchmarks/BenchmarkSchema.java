@@ -0,0 +1,81 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the synthetic tables the benchmarks run against: an id primary key followed by
+ * {@code columns} columns of one type, or a rotation of all types for {@code mixed}.
+ */
+public class BenchmarkSchema {
+
+    private static final String[] MIXED = {"int", "varchar", "decimal", "timestamp", "bigint", "double", "boolean"};
+
+    static String sqlType(String columnType, int column) {
+        String type = "mixed".equals(columnType) ? MIXED[column % MIXED.length] : columnType;
+        switch (type) {
+            case "int":
+                return "INT";
+            case "bigint":
+                return "BIGINT";
+            case "double":
+                return "DOUBLE PRECISION";
+            case "boolean":
+                return "BOOLEAN";
+            case "varchar":
+                return "VARCHAR(64)";
+            case "decimal":
+                return "DECIMAL(12,2)";
+            case "timestamp":
+                return "TIMESTAMP";
+            default:
+                throw new IllegalArgumentException("Unknown column type " + type);
+        }
+    }
+
+    /**
+     * An H2 expression producing a value for {@code column} of row {@code X} in {@code SYSTEM_RANGE}.
+     */
+    static String valueExpression(String sqlType, int column) {
+        switch (sqlType) {
+            case "INT":
+                return "CAST(MOD(X * " + (column + 1) + ", 1000000) AS INT)";
+            case "BIGINT":
+                return "X * " + (column + 1);
+            case "DOUBLE PRECISION":
+                return "X / " + (column + 2) + ".0";
+            case "BOOLEAN":
+                return "MOD(X, 2) = 0";
+            case "VARCHAR(64)":
+                return "'value-" + column + "-' || X";
+            case "DECIMAL(12,2)":
+                return "X * 1.25";
+            case "TIMESTAMP":
+                return "TIMESTAMP '2020-01-01 00:00:00' + X * INTERVAL '1' SECOND";
+            default:
+                throw new IllegalArgumentException("Unknown SQL type " + sqlType);
+        }
+    }
+
+    /**
+     * Creates {@code table} with the given shape and fills it with {@code rows} rows; with
+     * {@code rows == 0} only the empty table is created.
+     */
+    static void create(Connection conn, String table, int columns, String columnType, int rows) throws SQLException {
+        StringBuilder create = new StringBuilder("CREATE TABLE " + table + " (id BIGINT PRIMARY KEY");
+        StringBuilder select = new StringBuilder("SELECT X");
+        for (int i = 1; i <= columns; i++) {
+            String sqlType = sqlType(columnType, i);
+            create.append(", c").append(i).append(' ').append(sqlType);
+            select.append(", ").append(valueExpression(sqlType, i));
+        }
+        create.append(")");
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + table);
+            stmt.execute(create.toString());
+            if (rows > 0) {
+                stmt.execute("INSERT INTO " + table + " " + select + " FROM SYSTEM_RANGE(1, " + rows + ")");
+            }
+        }
+    }
+}
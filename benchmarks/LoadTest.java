@@ -0,0 +1,268 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * End-to-end load test: generates synthetic source schemas in an in-memory H2 database, copies
+ * them with {@link DatabaseTransfer} into a second one, and records rows/sec, peak heap and GC time
+ * per scenario. Results are appended to a CSV file; given a baseline CSV, a scenario whose rows/sec
+ * falls more than the tolerance below its last baseline result fails the run.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar LoadTest [--scale=100000] [--tiny-tables=1000] [--batch-size=10000]
+ *      [--scenarios=wide,lob,skewed,tiny] [--results=loadtest-results.csv] [--baseline=<csv>] [--tolerance=0.1]
+ *      [-- &lt;DatabaseTransfer options&gt;]
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final String SOURCE_URL = "jdbc:h2:mem:loadtest_source;DB_CLOSE_DELAY=-1";
+    private static final String TARGET_URL = "jdbc:h2:mem:loadtest_target;DB_CLOSE_DELAY=-1";
+
+    static class Settings {
+        int scale = 100000;
+        int tinyTables = 1000;
+        int batchSize = 10000;
+        List<String> scenarios = Arrays.asList("wide", "lob", "skewed", "tiny");
+        String results = "loadtest-results.csv";
+        String baseline;
+        double tolerance = 0.1;
+        List<String> transferOptions = new ArrayList<>();
+    }
+
+    static class Result {
+        String scenario;
+        long rows;
+        double seconds;
+        long peakHeapBytes;
+        long gcMillis;
+
+        double rowsPerSecond() {
+            return rows / seconds;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = parseSettings(args);
+        Map<String, Double> baseline = settings.baseline == null ? Collections.emptyMap() : readBaseline(settings.baseline);
+        File config = writeConfig();
+
+        boolean regressed = false;
+        try (Connection source = DriverManager.getConnection(SOURCE_URL, "sa", "");
+             Connection target = DriverManager.getConnection(TARGET_URL, "sa", "")) {
+            for (String scenario : settings.scenarios) {
+                List<String> tables = createScenario(source, target, scenario, settings);
+                Result result = run(config, scenario, tables, settings);
+                long copied = countRows(target, tables);
+                if (copied != result.rows) {
+                    throw new IllegalStateException(scenario + ": copied " + copied + " of " + result.rows + " rows");
+                }
+                System.out.printf("loadtest scenario=%s rows=%d seconds=%.2f rows_per_sec=%.0f peak_heap_mb=%d gc_ms=%d%n",
+                        scenario, result.rows, result.seconds, result.rowsPerSecond(), result.peakHeapBytes >> 20, result.gcMillis);
+                appendResult(settings, result);
+
+                Double previous = baseline.get(scenario);
+                if (previous != null && result.rowsPerSecond() < previous * (1 - settings.tolerance)) {
+                    System.out.printf("REGRESSION in %s: %.0f rows/sec against %.0f in the baseline%n", scenario, result.rowsPerSecond(), previous);
+                    regressed = true;
+                }
+                dropTables(source, tables);
+                dropTables(target, tables);
+            }
+        } finally {
+            config.delete();
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    private static Settings parseSettings(String[] args) {
+        Settings settings = new Settings();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                settings.transferOptions.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                break;
+            } else if (arg.startsWith("--scale=")) {
+                settings.scale = Integer.parseInt(arg.substring("--scale=".length()));
+            } else if (arg.startsWith("--tiny-tables=")) {
+                settings.tinyTables = Integer.parseInt(arg.substring("--tiny-tables=".length()));
+            } else if (arg.startsWith("--batch-size=")) {
+                settings.batchSize = Integer.parseInt(arg.substring("--batch-size=".length()));
+            } else if (arg.startsWith("--scenarios=")) {
+                settings.scenarios = Arrays.asList(arg.substring("--scenarios=".length()).split(","));
+            } else if (arg.startsWith("--results=")) {
+                settings.results = arg.substring("--results=".length());
+            } else if (arg.startsWith("--baseline=")) {
+                settings.baseline = arg.substring("--baseline=".length());
+            } else if (arg.startsWith("--tolerance=")) {
+                settings.tolerance = Double.parseDouble(arg.substring("--tolerance=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return settings;
+    }
+
+    private static File writeConfig() throws IOException {
+        File config = File.createTempFile("loadtest", ".conf");
+        try (Writer writer = Files.newBufferedWriter(config.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("connections:\n");
+            for (String[] connection : new String[][]{{"source", SOURCE_URL}, {"target", TARGET_URL}}) {
+                writer.write("  - name: " + connection[0] + "\n");
+                writer.write("    dbType: h2\n");
+                writer.write("    url: " + connection[1] + "\n");
+                writer.write("    userName: sa\n");
+                writer.write("    password: \"\"\n");
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Creates the scenario's tables on both sides, fills the source ones, and returns their names.
+     */
+    private static List<String> createScenario(Connection source, Connection target, String scenario, Settings settings) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        switch (scenario) {
+            case "wide":
+                // 200 columns of every type the binders handle
+                BenchmarkSchema.create(source, "wide", 200, "mixed", settings.scale);
+                BenchmarkSchema.create(target, "wide", 200, "mixed", 0);
+                tables.add("wide");
+                break;
+            case "lob": {
+                String ddl = "CREATE TABLE lob (id BIGINT PRIMARY KEY, doc CLOB, payload BLOB)";
+                execute(source, ddl);
+                execute(target, ddl);
+                execute(source, "INSERT INTO lob SELECT X, REPEAT('lorem ipsum ', 1000), CAST(REPEAT('ab', 8192) AS BINARY VARYING)"
+                        + " FROM SYSTEM_RANGE(1, " + Math.max(1, settings.scale / 20) + ")");
+                tables.add("lob");
+                break;
+            }
+            case "skewed": {
+                // nine in ten keys are dense, the rest are spread over a range a million times wider,
+                // so equal-width key ranges end up very uneven
+                String ddl = "CREATE TABLE skewed (id BIGINT PRIMARY KEY, v VARCHAR(64), n INT)";
+                execute(source, ddl);
+                execute(target, ddl);
+                execute(source, "INSERT INTO skewed SELECT CASE WHEN MOD(X, 10) = 0 THEN X * 1000000 ELSE X END, 'value-' || X, CAST(MOD(X, 1000) AS INT)"
+                        + " FROM SYSTEM_RANGE(1, " + settings.scale + ")");
+                tables.add("skewed");
+                break;
+            }
+            case "tiny":
+                for (int i = 0; i < settings.tinyTables; i++) {
+                    String table = "tiny_" + i;
+                    BenchmarkSchema.create(source, table, 4, "mixed", 10);
+                    BenchmarkSchema.create(target, table, 4, "mixed", 0);
+                    tables.add(table);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        return tables;
+    }
+
+    private static Result run(File config, String scenario, List<String> tables, Settings settings) throws Exception {
+        List<String> args = new ArrayList<>(settings.transferOptions);
+        args.add("--metrics-interval=0");
+        args.addAll(Arrays.asList(config.getPath(), String.valueOf(settings.batchSize), "source", "target"));
+        args.addAll(tables);
+
+        Result result = new Result();
+        result.scenario = scenario;
+        try (Connection source = DriverManager.getConnection(SOURCE_URL, "sa", "")) {
+            result.rows = countRows(source, tables);
+        }
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcBefore = gcMillis();
+        long started = System.nanoTime();
+        DatabaseTransfer.main(args.toArray(new String[0]));
+        result.seconds = (System.nanoTime() - started) / 1e9;
+        result.gcMillis = gcMillis() - gcBefore;
+        for (MemoryPoolMXBean pool : heapPools) {
+            result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        return result;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long countRows(Connection conn, List<String> tables) throws SQLException {
+        long rows = 0;
+        try (Statement stmt = conn.createStatement()) {
+            for (String table : tables) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                    rs.next();
+                    rows += rs.getLong(1);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void dropTables(Connection conn, List<String> tables) throws SQLException {
+        for (String table : tables) {
+            execute(conn, "DROP TABLE IF EXISTS " + table);
+        }
+    }
+
+    private static void appendResult(Settings settings, Result result) throws IOException {
+        File file = new File(settings.results);
+        boolean header = !file.exists();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+            if (header) {
+                writer.write("time,scenario,rows,seconds,rows_per_sec,peak_heap_mb,gc_ms,options\n");
+            }
+            writer.write(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.0f,%d,%d,\"%s\"%n", Instant.now(), result.scenario, result.rows,
+                    result.seconds, result.rowsPerSecond(), result.peakHeapBytes >> 20, result.gcMillis, String.join(" ", settings.transferOptions)));
+        }
+    }
+
+    /**
+     * Returns the last rows/sec recorded for each scenario in a results CSV.
+     */
+    private static Map<String, Double> readBaseline(String path) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(new File(path).toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", 8);
+                if (fields.length >= 5) {
+                    baseline.put(fields[1], Double.parseDouble(fields[4]));
+                }
+            }
+        }
+        return baseline;
+    }
+}
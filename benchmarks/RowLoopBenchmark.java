@@ -0,0 +1,85 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three stages of the per-row loop in {@code DatabaseTransfer}, each over one batch of rows
+ * from an in-memory H2 table: reading a result set into a {@link RowBatch}, binding the batch to an
+ * INSERT statement, and encoding it as COPY text. Scores are batches per second; multiply by
+ * {@code batchSize} for rows per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowLoopBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int columns;
+
+    @Param({"int", "varchar", "decimal", "timestamp", "mixed"})
+    public String columnType;
+
+    @Param({"1000", "10000"})
+    public int batchSize;
+
+    private Connection conn;
+    private PreparedStatement select;
+    private PreparedStatement insert;
+    private RowBatch readBatch;
+    private RowBatch filledBatch;
+    private TextRowEncoder encoder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:rowloop;DB_CLOSE_DELAY=-1", "sa", "");
+        BenchmarkSchema.create(conn, "bench_source", columns, columnType, batchSize);
+        BenchmarkSchema.create(conn, "bench_target", columns, columnType, 0);
+
+        select = conn.prepareStatement("SELECT * FROM bench_source");
+        TableColumns tableColumns;
+        try (ResultSet rs = select.executeQuery()) {
+            tableColumns = TableColumns.of(rs.getMetaData());
+            ColumnBinder[] binders = ColumnBinder.forColumns(tableColumns);
+            readBatch = new RowBatch(batchSize, binders);
+            filledBatch = new RowBatch(batchSize, binders);
+            filledBatch.fill(rs);
+        }
+        insert = conn.prepareStatement("INSERT INTO bench_target " + BatchInsertWriter.columnsAndValues(tableColumns));
+        encoder = new TextRowEncoder("\\\\x", 't', 'f', 64 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Benchmark
+    public int extract() throws SQLException {
+        try (ResultSet rs = select.executeQuery()) {
+            return readBatch.fill(rs);
+        }
+    }
+
+    @Benchmark
+    public int bind() throws SQLException {
+        for (int r = 0; r < filledBatch.size(); r++) {
+            filledBatch.bindRow(insert, r, 1);
+            insert.addBatch();
+        }
+        insert.clearBatch();
+        return filledBatch.size();
+    }
+
+    @Benchmark
+    public int assemble() {
+        encoder.reset();
+        for (int r = 0; r < filledBatch.size(); r++) {
+            encoder.writeRow(filledBatch, r);
+        }
+        return encoder.size();
+    }
+}
@@ -0,0 +1,102 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full {@code DatabaseTransfer} run of a synthetic table between two in-memory H2 databases,
+ * swept over batch size and thread count (key ranges read in parallel, each with as many writers).
+ * Scores are milliseconds per run of {@code rows} rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableTransferBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"8", "32"})
+    public int columns;
+
+    @Param({"int", "mixed"})
+    public String columnType;
+
+    @Param({"1000", "10000"})
+    public int batchSize;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private Connection source;
+    private Connection target;
+    private File config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        source = DriverManager.getConnection("jdbc:h2:mem:bench_source;DB_CLOSE_DELAY=-1", "sa", "");
+        target = DriverManager.getConnection("jdbc:h2:mem:bench_target;DB_CLOSE_DELAY=-1", "sa", "");
+        BenchmarkSchema.create(source, "bench", columns, columnType, rows);
+        BenchmarkSchema.create(target, "bench", columns, columnType, 0);
+
+        config = File.createTempFile("benchmark", ".conf");
+        try (Writer writer = Files.newBufferedWriter(config.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("connections:\n");
+            for (String name : new String[]{"source", "target"}) {
+                writer.write("  - name: " + name + "\n");
+                writer.write("    dbType: h2\n");
+                writer.write("    url: jdbc:h2:mem:bench_" + name + ";DB_CLOSE_DELAY=-1\n");
+                writer.write("    userName: sa\n");
+                writer.write("    password: \"\"\n");
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyTarget() throws SQLException {
+        try (Statement stmt = target.createStatement()) {
+            stmt.execute("TRUNCATE TABLE bench");
+        }
+    }
+
+    /**
+     * A run that fails part of the table only reports it, so a run that copied too little would
+     * otherwise score as a fast one.
+     */
+    @TearDown(Level.Invocation)
+    public void checkTarget() throws SQLException {
+        try (Statement stmt = target.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM bench")) {
+            long copied = rs.next() ? rs.getLong(1) : 0;
+            if (copied != rows) {
+                throw new IllegalStateException("copied " + copied + " of " + rows + " rows");
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        source.close();
+        target.close();
+        config.delete();
+    }
+
+    @Benchmark
+    public void transfer() throws Exception {
+        DatabaseTransfer.main(new String[]{
+                "--splits=" + threads, "--writers=" + threads, "--metrics-interval=0",
+                config.getPath(), String.valueOf(batchSize), "source", "target", "bench"});
+    }
+}
@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CheckpointStoreTest {
+
+    @Test
+    void keysRoundTrip() {
+        Object[] keys = {
+                0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE,
+                new BigDecimal("123456789012345678901234567890"), new BigDecimal("-0.000150"),
+                Timestamp.valueOf("2024-02-29 23:59:59.123456789"),
+                Date.valueOf("1999-12-31"),
+        };
+        for (Object key : keys) {
+            assertEquals(key, CheckpointStore.decode(CheckpointStore.encode(key)));
+        }
+    }
+
+    @Test
+    void narrowIntegersComeBackAsLongs() {
+        assertEquals(7L, CheckpointStore.decode(CheckpointStore.encode(7)));
+        assertEquals(-3L, CheckpointStore.decode(CheckpointStore.encode((short) -3)));
+    }
+
+    @Test
+    void unsupportedKeysAreNotEncoded() {
+        assertNull(CheckpointStore.encode("abc"));
+        assertNull(CheckpointStore.encode(1.5d));
+    }
+
+    @Test
+    void malformedValuesDecodeToNull() {
+        assertNull(CheckpointStore.decode("L:abc"));
+        assertNull(CheckpointStore.decode("T:yesterday"));
+        assertNull(CheckpointStore.decode("X:1"));
+        assertNull(CheckpointStore.decode("L"));
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SplitPlannerTest {
+
+    @Test
+    void evenRangesSplitEvenly() {
+        assertEquals(Arrays.asList(26L, 51L, 76L), SplitPlanner.boundaries(1, 100, 4));
+    }
+
+    @Test
+    void oneSplitHasNoBoundaries() {
+        assertEquals(Collections.emptyList(), SplitPlanner.boundaries(1, 100, 1));
+    }
+
+    @Test
+    void moreSplitsThanKeysSkipEmptyRanges() {
+        assertEquals(Arrays.asList(2L, 3L), SplitPlanner.boundaries(1, 3, 10));
+        assertEquals(Collections.emptyList(), SplitPlanner.boundaries(5, 5, 8));
+    }
+
+    @Test
+    void fullLongRangeDoesNotOverflow() {
+        assertEquals(Collections.singletonList(0L), SplitPlanner.boundaries(Long.MIN_VALUE, Long.MAX_VALUE, 2));
+
+        List<Long> boundaries = SplitPlanner.boundaries(Long.MIN_VALUE, Long.MAX_VALUE, 16);
+        assertEquals(15, boundaries.size());
+        assertIncreasingWithin(boundaries, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    void boundariesStayInsideTheRange() {
+        long[][] ranges = {{-1000, 1000}, {0, 7}, {Long.MAX_VALUE - 10, Long.MAX_VALUE}, {-5, -1}};
+        for (long[] range : ranges) {
+            for (int splits = 1; splits <= 20; splits++) {
+                assertIncreasingWithin(SplitPlanner.boundaries(range[0], range[1], splits), range[0], range[1]);
+            }
+        }
+    }
+
+    private static void assertIncreasingWithin(List<Long> boundaries, long min, long max) {
+        long previous = min;
+        for (long boundary : boundaries) {
+            assertTrue(boundary > previous && boundary <= max, boundaries + " in [" + min + ", " + max + "]");
+            previous = boundary;
+        }
+    }
+}
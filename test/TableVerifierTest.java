@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TableVerifierTest {
+
+    @Test
+    void integersReadAsBooleansHashLikeTheBooleansWritten() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE source (id INT, flag INT)");
+            stmt.execute("INSERT INTO source VALUES (1, 2), (2, 1), (3, -1), (4, 0), (5, NULL)");
+            stmt.execute("CREATE TABLE target (id INT, flag BOOLEAN)");
+            stmt.execute("INSERT INTO target VALUES (1, TRUE), (2, TRUE), (3, TRUE), (4, FALSE), (5, NULL)");
+
+            ColumnBinder[] asBoolean = {null, ColumnBinder.forType(Types.INTEGER), new TypeMapping.IntAsBooleanBinder()};
+            try (RowBatch source = fill(conn, "SELECT * FROM source ORDER BY id", asBoolean);
+                 RowBatch target = fill(conn, "SELECT * FROM target ORDER BY id", null)) {
+                assertEquals(5, source.size());
+                for (int row = 0; row < source.size(); row++) {
+                    assertEquals(TableVerifier.rowHash(target, row), TableVerifier.rowHash(source, row), "row " + (row + 1));
+                }
+            }
+        }
+    }
+
+    private static RowBatch fill(Connection conn, String sql, ColumnBinder[] binders) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            RowBatch batch = new RowBatch(8, binders != null ? binders : ColumnBinder.forColumns(TableColumns.of(rs.getMetaData())));
+            batch.fill(rs);
+            return batch;
+        }
+    }
+}
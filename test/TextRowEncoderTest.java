@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TextRowEncoderTest {
+
+    private static final Object[][] ROWS = {
+            {Long.MAX_VALUE, "\ud83d\ude00", "plain", false, new byte[0], new BigDecimal("-0.01")},
+            {-7L, "a\tb\nc\rd\\e \u00e9", null, true, new byte[]{0, (byte) 0xff, 0x10}, new BigDecimal("1.50")},
+            {Long.MIN_VALUE, "", "N", null, null, null},
+    };
+
+    @Test
+    void postgresCopyText() throws Exception {
+        assertEquals("9223372036854775807\t\ud83d\ude00\tplain\tf\t\\\\x\t-0.01\n"
+                        + "-7\ta\\tb\\nc\\rd\\\\e \u00e9\t\\N\tt\t\\\\x00ff10\t1.50\n"
+                        + "-9223372036854775808\t\tN\t\\N\t\\N\t\\N\n",
+                encodeRows(new TextRowEncoder("\\\\x", 't', 'f', 16)));
+    }
+
+    @Test
+    void mysqlLoadDataText() throws Exception {
+        assertEquals("9223372036854775807\t\ud83d\ude00\tplain\t0\t\t-0.01\n"
+                        + "-7\ta\\tb\\nc\\rd\\\\e \u00e9\t\\N\t1\t00ff10\t1.50\n"
+                        + "-9223372036854775808\t\tN\t\\N\t\\N\t\\N\n",
+                encodeRows(new TextRowEncoder("", '1', '0', 16)));
+    }
+
+    @Test
+    void streamMatchesWrittenRows() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+             RowBatch batch = fill(conn)) {
+            TextRowEncoder encoder = new TextRowEncoder("\\\\x", 't', 'f', 4);
+            for (int row = 0; row < batch.size(); row++) {
+                encoder.writeRow(batch, row);
+            }
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            written.write(encoder.buffer(), 0, encoder.size());
+
+            // odd read sizes so reads end inside escapes and multi-byte characters
+            for (int readSize : new int[]{1, 3, 7, 64}) {
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                try (TextRowEncoder.RowStream rows = encoder.stream(batch, 0, batch.size())) {
+                    copy(rows, streamed, readSize);
+                    assertEquals(batch.size(), rows.rows());
+                }
+                assertArrayEquals(written.toByteArray(), streamed.toByteArray());
+            }
+
+            ByteArrayOutputStream lastRow = new ByteArrayOutputStream();
+            try (TextRowEncoder.RowStream rows = encoder.stream(batch, 2, 3)) {
+                copy(rows, lastRow, 5);
+                assertEquals(1, rows.rows());
+            }
+            assertEquals("-9223372036854775808\t\tN\t\\N\t\\N\t\\N\n", new String(lastRow.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String encodeRows(TextRowEncoder encoder) throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:");
+             RowBatch batch = fill(conn)) {
+            for (int row = 0; row < batch.size(); row++) {
+                encoder.writeRow(batch, row);
+            }
+            return new String(encoder.buffer(), 0, encoder.size(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static RowBatch fill(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t (id BIGINT, text1 VARCHAR(20), text2 VARCHAR(20), flag BOOLEAN, data VARBINARY(20), amount DECIMAL(5, 2))");
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO t VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (Object[] row : ROWS) {
+                for (int i = 0; i < row.length; i++) {
+                    insert.setObject(i + 1, row[i]);
+                }
+                insert.executeUpdate();
+            }
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM t ORDER BY id DESC")) {
+            RowBatch batch = new RowBatch(8, ColumnBinder.forColumns(TableColumns.of(rs.getMetaData())));
+            batch.fill(rs);
+            return batch;
+        }
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out, int readSize) throws IOException {
+        byte[] chunk = new byte[readSize];
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            out.write(chunk, 0, n);
+        }
+    }
+}
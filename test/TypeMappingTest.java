@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.Types;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TypeMappingTest {
+
+    @Test
+    void arraysBecomeJson() {
+        assertEquals("[1,null,\"a b\",[2,3]]", TypeMapping.pgArrayToJson("{1,NULL,\"a b\",{2,3}}", false));
+        assertEquals("[]", TypeMapping.pgArrayToJson("{}", false));
+        assertEquals("[-1.5,2e10,\"x1\"]", TypeMapping.pgArrayToJson("{-1.5,2e10,x1}", false));
+    }
+
+    @Test
+    void arrayBoundsAreDropped() {
+        assertEquals("[7,8]", TypeMapping.pgArrayToJson("[0:1]={7,8}", false));
+    }
+
+    @Test
+    void booleanArrays() {
+        assertEquals("[true,false,null]", TypeMapping.pgArrayToJson("{t,f,NULL}", true));
+        assertEquals("[\"t\",\"f\",null]", TypeMapping.pgArrayToJson("{t,f,NULL}", false));
+    }
+
+    @Test
+    void quotedElementsAreUnescapedThenJsonEscaped() {
+        assertEquals("[\"say \\\"hi\\\"\",\"back\\\\slash\",\"NULL\",\"a,b\"]",
+                TypeMapping.pgArrayToJson("{\"say \\\"hi\\\"\",\"back\\\\slash\",\"NULL\",\"a,b\"}", false));
+        assertEquals("[\"tab\\u0009\"]", TypeMapping.pgArrayToJson("{\"tab\t\"}", false));
+    }
+
+    @Test
+    void unsignedColumnsWiden() {
+        TableColumns columns = columns(
+                Types.INTEGER, "INT UNSIGNED",
+                Types.BIGINT, "BIGINT UNSIGNED",
+                Types.INTEGER, "INT");
+        TableColumns normalized = TypeMapping.normalize("mysql", columns);
+        assertEquals(Types.BIGINT, normalized.types[1]);
+        assertEquals(Types.DECIMAL, normalized.types[2]);
+        assertEquals(Types.INTEGER, normalized.types[3]);
+        assertEquals("INT UNSIGNED", normalized.typeNames[1]);
+        assertEquals("c1", normalized.names[1]);
+    }
+
+    @Test
+    void typesWithoutPortableAccessorsAreReadAsText() {
+        TableColumns columns = columns(
+                Types.OTHER, "uuid",
+                Types.BINARY, "uuid",
+                Types.ARRAY, "_int4",
+                Types.SQLXML, "xml",
+                Types.OTHER, "jsonb",
+                Types.DOUBLE, "money");
+        TableColumns normalized = TypeMapping.normalize("postgresql", columns);
+        for (int i = 1; i <= normalized.count(); i++) {
+            assertEquals(Types.VARCHAR, normalized.types[i], normalized.typeNames[i]);
+        }
+    }
+
+    @Test
+    void moneyIsOnlySpecialOnPostgres() {
+        TableColumns normalized = TypeMapping.normalize("mysql", columns(Types.DOUBLE, "money"));
+        assertEquals(Types.DOUBLE, normalized.types[1]);
+    }
+
+    private static TableColumns columns(Object... typeAndName) {
+        TableColumns columns = new TableColumns(typeAndName.length / 2);
+        for (int i = 1; i <= columns.count(); i++) {
+            columns.names[i] = "c" + i;
+            columns.types[i] = (Integer) typeAndName[2 * i - 2];
+            columns.typeNames[i] = (String) typeAndName[2 * i - 1];
+        }
+        return columns;
+    }
+}